@@ -0,0 +1,147 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.uqac.dim.mapreduce.Collector;
+import ca.uqac.dim.mapreduce.Tuple;
+
+/**
+ * Measures the cost of filling a {@link Collector} and of grouping its
+ * tuples by key with {@link Collector#subCollectors()}, the two
+ * operations on which the shuffle of every workflow relies.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectorBenchmark
+{
+  /**
+   * The number of tuples in the collector
+   */
+  @Param({"1000", "100000", "1000000"})
+  public int size;
+
+  /**
+   * The number of distinct keys among these tuples
+   */
+  @Param({"10", "10000"})
+  public int keys;
+
+  private Tuple<Integer,Integer>[] m_tuples;
+
+  private Collector<Integer,Integer> m_filled;
+
+  /**
+   * The collector shared by all the threads of
+   * {@link #collectShared(Blackhole)}. It is replaced by an empty one
+   * once it holds more than {@link #SHARED_LIMIT} tuples, so that its
+   * size does not depend on the length of the iteration.
+   */
+  private volatile Collector<Integer,Integer> m_shared;
+
+  private static final int SHARED_LIMIT = 1 << 22;
+
+  @SuppressWarnings("unchecked")
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    m_tuples = new Tuple[size];
+    m_filled = new Collector<Integer,Integer>();
+    for (int i = 0; i < size; i++)
+    {
+      m_tuples[i] = new Tuple<Integer,Integer>(i % keys, i);
+      m_filled.collect(m_tuples[i]);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void resetShared()
+  {
+    m_shared = new Collector<Integer,Integer>();
+  }
+
+  /**
+   * Fills an empty collector with all the tuples, from a single thread
+   */
+  @Benchmark
+  public Collector<Integer,Integer> collect()
+  {
+    Collector<Integer,Integer> c = new Collector<Integer,Integer>();
+    for (Tuple<Integer,Integer> t : m_tuples)
+    {
+      c.collect(t);
+    }
+    return c;
+  }
+
+  /**
+   * Adds the tuples to a collector shared by several threads, as the
+   * map tasks of a workflow do with its intermediate collector. The
+   * number of threads can be changed on the command line with
+   * <tt>-t</tt>.
+   */
+  @Benchmark
+  @Threads(4)
+  public void collectShared(Blackhole bh)
+  {
+    Collector<Integer,Integer> c = m_shared;
+    if (c.count() > SHARED_LIMIT)
+    {
+      c = new Collector<Integer,Integer>();
+      m_shared = c;
+    }
+    for (Tuple<Integer,Integer> t : m_tuples)
+    {
+      c.collect(t);
+    }
+    bh.consume(c);
+  }
+
+  /**
+   * Groups the tuples of a filled collector by key
+   */
+  @Benchmark
+  public Map<Integer,Collector<Integer,Integer>> subCollectors()
+  {
+    return m_filled.subCollectors();
+  }
+}
@@ -0,0 +1,157 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uqac.dim.mapreduce.Collector;
+import ca.uqac.dim.mapreduce.InCollector;
+import ca.uqac.dim.mapreduce.Mapper;
+import ca.uqac.dim.mapreduce.OutCollector;
+import ca.uqac.dim.mapreduce.ResourceManager;
+import ca.uqac.dim.mapreduce.Tuple;
+
+/**
+ * Measures the dispatch overhead of the {@link ResourceManager}: the
+ * tasks do (almost) nothing, so the time is that of submitting them to
+ * the worker threads and waiting for their completion.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceManagerBenchmark
+{
+  /**
+   * The number of worker threads of the manager
+   */
+  @Param({"1", "4", "16"})
+  public int threads;
+
+  /**
+   * The number of tasks submitted between two barriers
+   */
+  @Param({"100", "10000"})
+  public int tasks;
+
+  private ResourceManager<Integer,Integer> m_manager;
+
+  private Collector<Integer,Integer> m_source;
+
+  private final Mapper<Integer,Integer> m_identity = new Mapper<Integer,Integer>()
+  {
+    @Override
+    public void map(OutCollector<Integer,Integer> c, Tuple<Integer,Integer> t)
+    {
+      c.collect(t);
+    }
+  };
+
+  /**
+   * A task that does nothing
+   */
+  private final Runnable m_nop = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      // Nothing
+    }
+  };
+
+  @Setup
+  public void setUp()
+  {
+    m_manager = new ResourceManager<Integer,Integer>(threads, threads);
+    m_source = new Collector<Integer,Integer>();
+    for (int i = 0; i < tasks; i++)
+    {
+      m_source.collect(new Tuple<Integer,Integer>(i, i));
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    m_manager.shutdown();
+  }
+
+  /**
+   * Submits empty tasks and waits for them
+   */
+  @Benchmark
+  public void submitRunnable()
+  {
+    for (int i = 0; i < tasks; i++)
+    {
+      m_manager.submit(m_nop);
+    }
+    m_manager.waitThreads();
+  }
+
+  /**
+   * Submits one map task per tuple, the way the original
+   * {@link ca.uqac.dim.mapreduce.ParallelWorkflow} dispatched its input
+   */
+  @Benchmark
+  public Collector<Integer,Integer> submitTupleMap()
+  {
+    Collector<Integer,Integer> out = new Collector<Integer,Integer>();
+    m_source.rewind();
+    while (m_source.hasNext())
+    {
+      m_manager.submit(m_source.next(), out, m_identity);
+    }
+    m_manager.waitThreads();
+    return out;
+  }
+
+  /**
+   * Submits one map task per split of the input, as the
+   * {@link ca.uqac.dim.mapreduce.ParallelWorkflow} does now
+   */
+  @Benchmark
+  public Collector<Integer,Integer> submitSplitMap()
+  {
+    Collector<Integer,Integer> out = new Collector<Integer,Integer>();
+    for (InCollector<Integer,Integer> split : m_source.getSplits(threads * 2))
+    {
+      m_manager.submit(split, out, m_identity, null);
+    }
+    m_manager.waitThreads();
+    return out;
+  }
+}
@@ -0,0 +1,387 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ca.uqac.dim.mapreduce.Collector;
+import ca.uqac.dim.mapreduce.InCollector;
+import ca.uqac.dim.mapreduce.Mapper;
+import ca.uqac.dim.mapreduce.OutCollector;
+import ca.uqac.dim.mapreduce.ParallelWorkflow;
+import ca.uqac.dim.mapreduce.Reducer;
+import ca.uqac.dim.mapreduce.ResourceManager;
+import ca.uqac.dim.mapreduce.SequentialWorkflow;
+import ca.uqac.dim.mapreduce.Tuple;
+import ca.uqac.dim.mapreduce.Workflow;
+
+/**
+ * Runs a synthetic map-reduce job with the {@link SequentialWorkflow},
+ * then with the {@link ParallelWorkflow} on an increasing number of
+ * worker threads, and reports the throughput and speedup of each run
+ * as CSV or JSON.
+ * <p>
+ * The input is made of tuples whose keys are drawn from a
+ * {@link ZipfDistribution}, so that the effect of skewed groups on the
+ * reduce phase can be observed. The mapper and the reducer spin for a
+ * configurable number of iterations per tuple to simulate the CPU cost
+ * of a real job. The options are:
+ * <ul>
+ * <li><tt>--tuples n</tt>: the number of input tuples (default 1000000)</li>
+ * <li><tt>--keys n</tt>: the number of distinct keys (default 10000)</li>
+ * <li><tt>--zipf s</tt>: the exponent of the key distribution; 0 is
+ *   uniform (default 1)</li>
+ * <li><tt>--value-size n</tt>: the length of each value, in characters
+ *   (default 16)</li>
+ * <li><tt>--map-cost n</tt>, <tt>--reduce-cost n</tt>: the number of
+ *   iterations spent on each tuple by the mapper and the reducer
+ *   (default 0)</li>
+ * <li><tt>--max-workers n</tt>: the largest number of worker threads
+ *   (default: the number of processors)</li>
+ * <li><tt>--repeat n</tt>: the number of runs of each configuration; the
+ *   fastest is kept (default 3)</li>
+ * <li><tt>--format csv|json</tt>: the output format (default csv)</li>
+ * <li><tt>--output file</tt>: the output file (default: standard output)</li>
+ * <li><tt>--seed n</tt>: the seed of the random generator (default 0)</li>
+ * </ul>
+ * An unknown option, an option without its value or a malformed
+ * value stops the program with a usage message.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class ScalabilityBenchmark
+{
+  private int m_numTuples = 1000000;
+  private int m_numKeys = 10000;
+  private double m_zipf = 1;
+  private int m_valueSize = 16;
+  private int m_mapCost = 0;
+  private int m_reduceCost = 0;
+  private int m_maxWorkers = Runtime.getRuntime().availableProcessors();
+  private int m_repeat = 3;
+  private boolean m_json = false;
+  private String m_output = null;
+  private long m_seed = 0;
+
+  public static void main(String[] args) throws IOException
+  {
+    ScalabilityBenchmark b = new ScalabilityBenchmark();
+    try
+    {
+      b.parseArguments(args);
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.err.println(e.getMessage());
+      printUsage();
+      System.exit(1);
+    }
+    b.run();
+  }
+
+  /**
+   * Prints the options of the program to the standard error
+   */
+  private static void printUsage()
+  {
+    System.err.println("Usage: ScalabilityBenchmark [options]");
+    System.err.println("  --tuples n        Number of input tuples (default 1000000)");
+    System.err.println("  --keys n          Number of distinct keys (default 10000)");
+    System.err.println("  --zipf s          Exponent of the key distribution, 0 is uniform (default 1)");
+    System.err.println("  --value-size n    Length of each value, in characters (default 16)");
+    System.err.println("  --map-cost n      Iterations spent on each tuple by the mapper (default 0)");
+    System.err.println("  --reduce-cost n   Iterations spent on each tuple by the reducer (default 0)");
+    System.err.println("  --max-workers n   Largest number of worker threads (default: processors)");
+    System.err.println("  --repeat n        Runs of each configuration, the fastest is kept (default 3)");
+    System.err.println("  --format csv|json Output format (default csv)");
+    System.err.println("  --output file     Output file (default: standard output)");
+    System.err.println("  --seed n          Seed of the random generator (default 0)");
+  }
+
+  /**
+   * Sets the parameters of the benchmark from the command line
+   * @param args The arguments
+   * @throws IllegalArgumentException If an option is unknown, has no
+   *   value, or has a malformed value
+   */
+  private void parseArguments(String[] args)
+  {
+    for (int i = 0; i < args.length; i += 2)
+    {
+      String name = args[i];
+      if (i + 1 == args.length)
+        throw new IllegalArgumentException("Missing value for option " + name);
+      String value = args[i + 1];
+      try
+      {
+        if (name.equals("--tuples"))
+          m_numTuples = Integer.parseInt(value);
+        else if (name.equals("--keys"))
+          m_numKeys = Integer.parseInt(value);
+        else if (name.equals("--zipf"))
+          m_zipf = Double.parseDouble(value);
+        else if (name.equals("--value-size"))
+          m_valueSize = Integer.parseInt(value);
+        else if (name.equals("--map-cost"))
+          m_mapCost = Integer.parseInt(value);
+        else if (name.equals("--reduce-cost"))
+          m_reduceCost = Integer.parseInt(value);
+        else if (name.equals("--max-workers"))
+          m_maxWorkers = Integer.parseInt(value);
+        else if (name.equals("--repeat"))
+          m_repeat = Math.max(1, Integer.parseInt(value));
+        else if (name.equals("--format"))
+          m_json = value.equalsIgnoreCase("json");
+        else if (name.equals("--output"))
+          m_output = value;
+        else if (name.equals("--seed"))
+          m_seed = Long.parseLong(value);
+        else
+          throw new IllegalArgumentException("Unknown option " + name);
+      }
+      catch (NumberFormatException e)
+      {
+        throw new IllegalArgumentException("Malformed value for option " + name + ": " + value);
+      }
+    }
+  }
+
+  /**
+   * Runs all the configurations and writes the results
+   */
+  private void run() throws IOException
+  {
+    Collector<String,String> input = generateInput();
+    List<Result> results = new ArrayList<Result>();
+    results.add(measure(0, input));
+    for (int workers = 1; workers <= m_maxWorkers; workers *= 2)
+    {
+      results.add(measure(workers, input));
+      if (workers < m_maxWorkers && workers * 2 > m_maxWorkers)
+      {
+        // Always end the sweep with the maximum number of workers
+        results.add(measure(m_maxWorkers, input));
+      }
+    }
+    PrintWriter out;
+    if (m_output == null)
+      out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+    else
+      out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(m_output), "UTF-8"));
+    double sequential = results.get(0).m_nanos;
+    double single = results.size() > 1 ? results.get(1).m_nanos : sequential;
+    if (m_json)
+      writeJson(out, results, sequential, single);
+    else
+      writeCsv(out, results, sequential, single);
+    out.flush();
+    if (m_output != null)
+      out.close();
+  }
+
+  /**
+   * Creates the input tuples of the job
+   * @return A collector with the tuples
+   */
+  private Collector<String,String> generateInput()
+  {
+    ZipfDistribution keys = new ZipfDistribution(m_numKeys, m_zipf, m_seed);
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < m_valueSize; i++)
+    {
+      value.append((char) ('a' + i % 26));
+    }
+    String v = value.toString();
+    Collector<String,String> input = new Collector<String,String>();
+    for (int i = 0; i < m_numTuples; i++)
+    {
+      input.collect(new Tuple<String,String>("key" + keys.next(), v));
+    }
+    return input;
+  }
+
+  /**
+   * Runs the job on a given number of workers, as many times as asked,
+   * and keeps the fastest run
+   * @param workers The number of worker threads, or 0 for the
+   *   {@link SequentialWorkflow}
+   * @param input The input tuples
+   * @return The result of the fastest run
+   */
+  private Result measure(int workers, Collector<String,String> input)
+  {
+    Result best = null;
+    for (int i = 0; i < m_repeat; i++)
+    {
+      input.rewind();
+      ResourceManager<String,String> manager = null;
+      SequentialWorkflow<String,String> sw = null;
+      ParallelWorkflow<String,String> pw = null;
+      Workflow<String,String> w;
+      if (workers == 0)
+      {
+        sw = new SequentialWorkflow<String,String>(new CostlyMapper(m_mapCost), new CostlyReducer(m_reduceCost), input);
+        w = sw;
+      }
+      else
+      {
+        manager = new ResourceManager<String,String>(workers, workers);
+        pw = new ParallelWorkflow<String,String>(new CostlyMapper(m_mapCost), new CostlyReducer(m_reduceCost), input, manager, manager);
+        pw.setNumPartitions(workers);
+        pw.setNumSplits(2 * workers);
+        w = pw;
+      }
+      long start = System.nanoTime();
+      InCollector<String,String> out = w.run();
+      long nanos = System.nanoTime() - start;
+      if (manager != null)
+        manager.shutdown();
+      long max_group = sw != null ? sw.getMaxTuples() : pw.getMaxTuples();
+      if (best == null || nanos < best.m_nanos)
+        best = new Result(workers, nanos, out.count(), max_group);
+    }
+    return best;
+  }
+
+  private void writeCsv(PrintWriter out, List<Result> results, double sequential, double single)
+  {
+    out.println("workflow,workers,tuples,keys,zipf,time_ms,tuples_per_s,speedup_vs_sequential,speedup_vs_1_worker,output_tuples,max_group");
+    for (Result r : results)
+    {
+      out.println(String.format(Locale.US, "%s,%d,%d,%d,%.2f,%.3f,%.0f,%.3f,%.3f,%d,%d",
+          r.getWorkflowName(), r.m_workers, m_numTuples, m_numKeys, m_zipf,
+          r.m_nanos / 1e6, m_numTuples / (r.m_nanos / 1e9),
+          sequential / r.m_nanos, single / r.m_nanos, r.m_outputTuples, r.m_maxGroup));
+    }
+  }
+
+  private void writeJson(PrintWriter out, List<Result> results, double sequential, double single)
+  {
+    out.println("{");
+    out.println(String.format(Locale.US, "  \"tuples\": %d, \"keys\": %d, \"zipf\": %.2f, \"valueSize\": %d, \"mapCost\": %d, \"reduceCost\": %d,",
+        m_numTuples, m_numKeys, m_zipf, m_valueSize, m_mapCost, m_reduceCost));
+    out.println("  \"runs\": [");
+    for (int i = 0; i < results.size(); i++)
+    {
+      Result r = results.get(i);
+      out.print(String.format(Locale.US, "    {\"workflow\": \"%s\", \"workers\": %d, \"timeMs\": %.3f, \"tuplesPerSecond\": %.0f, \"speedupVsSequential\": %.3f, \"speedupVsOneWorker\": %.3f, \"outputTuples\": %d, \"maxGroup\": %d}",
+          r.getWorkflowName(), r.m_workers, r.m_nanos / 1e6, m_numTuples / (r.m_nanos / 1e9),
+          sequential / r.m_nanos, single / r.m_nanos, r.m_outputTuples, r.m_maxGroup));
+      out.println(i < results.size() - 1 ? "," : "");
+    }
+    out.println("  ]");
+    out.println("}");
+  }
+
+  /**
+   * The outcome of one configuration
+   */
+  private static class Result
+  {
+    final int m_workers;
+    final long m_nanos;
+    final int m_outputTuples;
+    final long m_maxGroup;
+
+    Result(int workers, long nanos, int output_tuples, long max_group)
+    {
+      m_workers = workers;
+      m_nanos = nanos;
+      m_outputTuples = output_tuples;
+      m_maxGroup = max_group;
+    }
+
+    String getWorkflowName()
+    {
+      return m_workers == 0 ? "sequential" : "parallel";
+    }
+  }
+
+  /**
+   * Spins for a number of iterations, in a way the compiler cannot
+   * optimize away
+   * @param iterations The number of iterations
+   * @param seed A value mixed into the computation
+   * @return A meaningless value
+   */
+  /*package*/ static int spin(int iterations, int seed)
+  {
+    int x = seed;
+    for (int i = 0; i < iterations; i++)
+    {
+      x = x * 1103515245 + 12345;
+    }
+    return x;
+  }
+
+  /**
+   * Outputs each input tuple unchanged, after spinning for a while
+   */
+  private static class CostlyMapper implements Mapper<String,String>
+  {
+    private final int m_cost;
+
+    CostlyMapper(int cost)
+    {
+      m_cost = cost;
+    }
+
+    @Override
+    public void map(OutCollector<String,String> c, Tuple<String,String> t)
+    {
+      if (spin(m_cost, t.hashCode()) == 42)
+        c.collect(new Tuple<String,String>(t.getKey(), ""));
+      else
+        c.collect(t);
+    }
+  }
+
+  /**
+   * Outputs the number of tuples for each key, after spinning for a
+   * while on each tuple
+   */
+  private static class CostlyReducer implements Reducer<String,String>
+  {
+    private final int m_cost;
+
+    CostlyReducer(int cost)
+    {
+      m_cost = cost;
+    }
+
+    @Override
+    public void reduce(OutCollector<String,String> out, String key, InCollector<String,String> in)
+    {
+      int count = 0;
+      int x = 0;
+      while (in.hasNext())
+      {
+        x += spin(m_cost, in.next().getValue().length());
+        count++;
+      }
+      out.collect(new Tuple<String,String>(key, count + (x == 42 ? "" : "")));
+    }
+  }
+}
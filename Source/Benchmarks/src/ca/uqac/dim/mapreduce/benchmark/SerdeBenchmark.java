@@ -0,0 +1,197 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uqac.dim.mapreduce.Serde;
+import ca.uqac.dim.mapreduce.Serdes;
+
+/**
+ * Compares the {@link Serdes} with Java serialization, on tuples made
+ * of a short string key and an integer value, the kind written to disk
+ * by a spilling word count. Each benchmark writes all the tuples, then
+ * reads them back. The size of the encoded tuples is printed once at
+ * setup.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerdeBenchmark
+{
+  /**
+   * The number of tuples written and read
+   */
+  @Param({"1000", "100000"})
+  public int size;
+
+  private static final Serde<String> KEYS = Serdes.STRING;
+  private static final Serde<Integer> VALUES = Serdes.INTEGER;
+
+  private String[] m_keys;
+  private Integer[] m_values;
+  private ByteBuffer m_heap;
+  private ByteBuffer m_direct;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    m_keys = new String[size];
+    m_values = new Integer[size];
+    for (int i = 0; i < size; i++)
+    {
+      m_keys[i] = "word" + i;
+      m_values[i] = i % 1000;
+    }
+    int capacity = 0;
+    for (int i = 0; i < size; i++)
+    {
+      // Length, UTF-8 bytes, and at most five bytes of varint
+      capacity += 5 + m_keys[i].length() * 3 + 5;
+    }
+    m_heap = ByteBuffer.allocate(capacity);
+    m_direct = ByteBuffer.allocateDirect(capacity);
+    System.out.println("Bytes per tuple: serdes " + writeSerdes().length / (double) size
+        + ", Java serialization " + writeJava().length / (double) size);
+  }
+
+  @Benchmark
+  public int serdeHeapBuffer()
+  {
+    return roundTrip(m_heap);
+  }
+
+  @Benchmark
+  public int serdeDirectBuffer()
+  {
+    return roundTrip(m_direct);
+  }
+
+  @Benchmark
+  public int serdeStream() throws IOException
+  {
+    byte[] bytes = writeSerdes();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    int total = 0;
+    for (int i = 0; i < size; i++)
+    {
+      total += KEYS.read(in).length();
+      total += VALUES.read(in);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int javaSerialization() throws IOException, ClassNotFoundException
+  {
+    byte[] bytes = writeJava();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    int total = 0;
+    for (int i = 0; i < size; i++)
+    {
+      total += ((String) in.readObject()).length();
+      total += (Integer) in.readObject();
+    }
+    return total;
+  }
+
+  /**
+   * Writes the tuples to a buffer and reads them back
+   * @param buffer The buffer
+   * @return A checksum of what was read
+   */
+  private int roundTrip(ByteBuffer buffer)
+  {
+    buffer.clear();
+    for (int i = 0; i < size; i++)
+    {
+      KEYS.write(m_keys[i], buffer);
+      VALUES.write(m_values[i], buffer);
+    }
+    buffer.flip();
+    int total = 0;
+    for (int i = 0; i < size; i++)
+    {
+      total += KEYS.read(buffer).length();
+      total += VALUES.read(buffer);
+    }
+    return total;
+  }
+
+  /**
+   * Writes the tuples to an array with the serdes
+   * @return The bytes written
+   * @throws IOException Never, since the stream writes to memory
+   */
+  private byte[] writeSerdes() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < size; i++)
+    {
+      KEYS.write(m_keys[i], out);
+      VALUES.write(m_values[i], out);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes the tuples to an array with Java serialization
+   * @return The bytes written
+   * @throws IOException Never, since the stream writes to memory
+   */
+  private byte[] writeJava() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    for (int i = 0; i < size; i++)
+    {
+      out.writeObject(m_keys[i]);
+      out.writeObject(m_values[i]);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.uqac.dim.mapreduce.Tuple;
+
+/**
+ * Measures {@link Tuple#hashCode()} and {@link Tuple#equals(Object)},
+ * alone and through a hash map keyed by tuples, for keys of the two
+ * types found in the examples: short strings and integers.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TupleBenchmark
+{
+  /**
+   * The number of tuples hashed and compared
+   */
+  @Param({"1000", "100000"})
+  public int size;
+
+  private Tuple<String,Integer>[] m_strings;
+  private Tuple<String,Integer>[] m_stringCopies;
+  private Tuple<Integer,Integer>[] m_ints;
+  private Tuple<Integer,Integer>[] m_intCopies;
+
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setUp()
+  {
+    m_strings = new Tuple[size];
+    m_stringCopies = new Tuple[size];
+    m_ints = new Tuple[size];
+    m_intCopies = new Tuple[size];
+    for (int i = 0; i < size; i++)
+    {
+      // Distinct String objects, so that equals compares the contents
+      m_strings[i] = new Tuple<String,Integer>(new String("word" + i), i);
+      m_stringCopies[i] = new Tuple<String,Integer>(new String("word" + i), i);
+      m_ints[i] = new Tuple<Integer,Integer>(i, i);
+      m_intCopies[i] = new Tuple<Integer,Integer>(i, i);
+    }
+  }
+
+  @Benchmark
+  public void hashCodeString(Blackhole bh)
+  {
+    for (Tuple<String,Integer> t : m_strings)
+    {
+      bh.consume(t.hashCode());
+    }
+  }
+
+  @Benchmark
+  public void hashCodeInteger(Blackhole bh)
+  {
+    for (Tuple<Integer,Integer> t : m_ints)
+    {
+      bh.consume(t.hashCode());
+    }
+  }
+
+  @Benchmark
+  public void equalsString(Blackhole bh)
+  {
+    for (int i = 0; i < size; i++)
+    {
+      bh.consume(m_strings[i].equals(m_stringCopies[i]));
+    }
+  }
+
+  @Benchmark
+  public void equalsInteger(Blackhole bh)
+  {
+    for (int i = 0; i < size; i++)
+    {
+      bh.consume(m_ints[i].equals(m_intCopies[i]));
+    }
+  }
+
+  /**
+   * Puts the tuples in a hash map, and looks them up with equal but
+   * distinct tuples
+   */
+  @Benchmark
+  public int hashMapString()
+  {
+    Map<Tuple<String,Integer>,Integer> map = new HashMap<Tuple<String,Integer>,Integer>();
+    for (Tuple<String,Integer> t : m_strings)
+    {
+      map.put(t, t.getValue());
+    }
+    int found = 0;
+    for (Tuple<String,Integer> t : m_stringCopies)
+    {
+      if (map.containsKey(t))
+        found++;
+    }
+    return found;
+  }
+}
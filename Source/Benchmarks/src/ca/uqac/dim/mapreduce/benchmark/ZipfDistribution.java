@@ -0,0 +1,76 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws integers in [0,n[ following a Zipf distribution: the
+ * probability of drawing <i>k</i> is proportional to
+ * 1/(<i>k</i>+1)<sup><i>s</i></sup>. An exponent <i>s</i> of 0 gives
+ * a uniform distribution; the larger the exponent, the more the first
+ * values dominate.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class ZipfDistribution
+{
+  /**
+   * The cumulative probability of each value
+   */
+  private final double[] m_cdf;
+
+  private final Random m_random;
+
+  /**
+   * Create a distribution
+   * @param n The number of distinct values
+   * @param exponent The exponent <i>s</i> of the distribution
+   * @param seed The seed of the random generator
+   */
+  public ZipfDistribution(int n, double exponent, long seed)
+  {
+    super();
+    m_cdf = new double[n];
+    double sum = 0;
+    for (int k = 0; k < n; k++)
+    {
+      sum += 1 / Math.pow(k + 1, exponent);
+      m_cdf[k] = sum;
+    }
+    for (int k = 0; k < n; k++)
+    {
+      m_cdf[k] /= sum;
+    }
+    m_random = new Random(seed);
+  }
+
+  /**
+   * Draws a value
+   * @return The value
+   */
+  public int next()
+  {
+    int k = Arrays.binarySearch(m_cdf, m_random.nextDouble());
+    if (k < 0)
+      k = -k - 1;
+    return Math.min(k, m_cdf.length - 1);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.check;
+
+/**
+ * Runs all the checks of the framework, and exits with a non-zero
+ * status if one of them fails. Each check is a small program that
+ * throws an {@link AssertionError} when what it verifies does not hold.
+ * Run them with:
+ * <pre>ant check</pre>
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class Checks
+{
+  public static void main(String[] args) throws Exception
+  {
+    ShuffleFailureCheck.main(args);
+    SerdeCheck.main(args);
+    System.out.println("All checks passed");
+  }
+
+  /**
+   * Fails a check if a condition does not hold
+   * @param condition The condition
+   * @param message What went wrong otherwise
+   */
+  static void check(boolean condition, String message)
+  {
+    if (!condition)
+      throw new AssertionError(message);
+  }
+}
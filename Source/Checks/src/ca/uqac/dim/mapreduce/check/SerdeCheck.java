@@ -0,0 +1,187 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import ca.uqac.dim.mapreduce.Serde;
+import ca.uqac.dim.mapreduce.Serdes;
+
+/**
+ * Checks that every {@link Serde} of {@link Serdes} reads back what it
+ * writes, to and from heap buffers, direct buffers, little-endian
+ * buffers, buffers that do not start at the beginning of their array,
+ * and streams, and that a value gives the same bytes in a buffer and
+ * in a stream. A string or byte array cut short must throw a
+ * {@link BufferUnderflowException}, and a malformed varint in a stream
+ * an {@link IOException}.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class SerdeCheck
+{
+  /**
+   * The size of the buffers, larger than any value written
+   */
+  private static final int BUFFER_SIZE = 256;
+
+  public static void main(String[] args) throws IOException
+  {
+    check(Serdes.STRING, null, "", "a", "Hallé", "日本語", "😀", "\u0000");
+    check(Serdes.BYTES, null, new byte[0], new byte[] {0, -1, 127, -128});
+    check(Serdes.INTEGER, 0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE);
+    check(Serdes.LONG, 0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE);
+    check(Serdes.SHORT, (short) 0, (short) -1, Short.MAX_VALUE, Short.MIN_VALUE);
+    check(Serdes.BYTE, (byte) 0, (byte) -1, Byte.MAX_VALUE, Byte.MIN_VALUE);
+    check(Serdes.BOOLEAN, true, false);
+    check(Serdes.CHARACTER, 'a', '\u0000', 'é', '\uFFFF');
+    check(Serdes.FLOAT, 0f, -0f, Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN, Float.NEGATIVE_INFINITY);
+    check(Serdes.DOUBLE, 0d, -0d, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY);
+    checkTruncated(Serdes.STRING, "Hallé");
+    checkTruncated(Serdes.BYTES, new byte[] {1, 2, 3});
+    checkMalformed();
+    System.out.println("SerdeCheck: OK");
+  }
+
+  /**
+   * Checks the round trip of values through every kind of destination
+   * @param serde The serde
+   * @param values The values
+   */
+  @SafeVarargs
+  private static <T> void check(Serde<T> serde, T ... values) throws IOException
+  {
+    for (T value : values)
+    {
+      byte[] from_stream = toStream(serde, value);
+      check(serde, value, ByteBuffer.allocate(BUFFER_SIZE), from_stream);
+      check(serde, value, ByteBuffer.allocateDirect(BUFFER_SIZE), from_stream);
+      check(serde, value, ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN), from_stream);
+      check(serde, value, ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN), from_stream);
+      // A buffer whose array has an offset
+      ByteBuffer sliced = ByteBuffer.allocate(BUFFER_SIZE + 3);
+      sliced.position(3);
+      check(serde, value, sliced.slice(), from_stream);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(from_stream));
+      checkEqual(value, serde.read(in), "a stream");
+      Checks.check(in.read() < 0, "Bytes left in the stream after " + toString(value));
+    }
+  }
+
+  /**
+   * Checks the round trip of a value through a buffer
+   * @param serde The serde
+   * @param value The value
+   * @param buffer The buffer
+   * @param from_stream The bytes written for the value to a stream
+   */
+  private static <T> void check(Serde<T> serde, T value, ByteBuffer buffer, byte[] from_stream)
+  {
+    String kind = (buffer.isDirect() ? "a direct" : "a heap") + " buffer";
+    if (buffer.order() == ByteOrder.LITTLE_ENDIAN)
+      kind = "a little-endian " + kind.substring(2);
+    serde.write(value, buffer);
+    buffer.flip();
+    byte[] written = new byte[buffer.remaining()];
+    buffer.duplicate().get(written);
+    Checks.check(Arrays.equals(written, from_stream),
+        toString(value) + " has different bytes in " + kind + " and in a stream");
+    checkEqual(value, serde.read(buffer), kind);
+    Checks.check(!buffer.hasRemaining(), "Bytes left in " + kind + " after " + toString(value));
+  }
+
+  /**
+   * Checks that a value cut short cannot be read
+   * @param serde The serde
+   * @param value The value
+   */
+  private static <T> void checkTruncated(Serde<T> serde, T value)
+  {
+    for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(BUFFER_SIZE), ByteBuffer.allocateDirect(BUFFER_SIZE)})
+    {
+      serde.write(value, buffer);
+      buffer.flip();
+      buffer.limit(buffer.limit() - 1);
+      boolean thrown = false;
+      try
+      {
+        serde.read(buffer);
+      }
+      catch (BufferUnderflowException e)
+      {
+        thrown = true;
+      }
+      Checks.check(thrown, toString(value) + " cut short was read from a buffer");
+    }
+  }
+
+  /**
+   * Checks that a varint longer than ten bytes cannot be read from a
+   * stream
+   */
+  private static void checkMalformed()
+  {
+    byte[] bytes = new byte[11];
+    Arrays.fill(bytes, (byte) 0xFF);
+    boolean thrown = false;
+    try
+    {
+      Serdes.readVarLong(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+    catch (IOException e)
+    {
+      thrown = true;
+    }
+    Checks.check(thrown, "A malformed varint was read from a stream");
+  }
+
+  /**
+   * Writes a value to a stream
+   * @param serde The serde
+   * @param value The value
+   * @return The bytes written
+   */
+  private static <T> byte[] toStream(Serde<T> serde, T value) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    serde.write(value, out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void checkEqual(Object expected, Object read, String where)
+  {
+    Checks.check(Arrays.deepEquals(new Object[] {expected}, new Object[] {read}),
+        toString(expected) + " was read from " + where + " as " + toString(read));
+  }
+
+  private static String toString(Object o)
+  {
+    return Arrays.deepToString(new Object[] {o});
+  }
+}
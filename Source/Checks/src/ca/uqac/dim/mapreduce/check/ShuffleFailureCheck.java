@@ -0,0 +1,121 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce.check;
+
+import ca.uqac.dim.mapreduce.Collector;
+import ca.uqac.dim.mapreduce.InCollector;
+import ca.uqac.dim.mapreduce.MapReduceException;
+import ca.uqac.dim.mapreduce.Mapper;
+import ca.uqac.dim.mapreduce.OutCollector;
+import ca.uqac.dim.mapreduce.ParallelWorkflow;
+import ca.uqac.dim.mapreduce.Reducer;
+import ca.uqac.dim.mapreduce.ResourceManager;
+import ca.uqac.dim.mapreduce.Tuple;
+
+/**
+ * Checks that a {@link ParallelWorkflow} whose shuffle fails reports
+ * the failure, instead of waiting forever for the partitions that the
+ * manager skipped. The keys have the same hash code and cannot be
+ * compared, so that grouping any partition with two of them throws;
+ * with a single worker, the other shuffle tasks are still queued when
+ * the first one fails.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class ShuffleFailureCheck
+{
+  /**
+   * The time the job is given to fail, in milliseconds
+   */
+  private static final long TIMEOUT = 10000;
+
+  public static void main(String[] args) throws Exception
+  {
+    Collector<Key,Integer> source = new Collector<Key,Integer>();
+    for (int i = 0; i < 100; i++)
+    {
+      source.collect(new Tuple<Key,Integer>(new Key(), i));
+    }
+    final ParallelWorkflow<Key,Integer> w = new ParallelWorkflow<Key,Integer>(
+        new Identity(), new Count(), source,
+        new ResourceManager<Key,Integer>(1), new ResourceManager<Key,Integer>(1));
+    w.setNumPartitions(8);
+    final Throwable[] thrown = new Throwable[1];
+    Thread job = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          w.run();
+        }
+        catch (Throwable t)
+        {
+          thrown[0] = t;
+        }
+      }
+    });
+    job.setDaemon(true);
+    job.start();
+    job.join(TIMEOUT);
+    Checks.check(!job.isAlive(), "The job is still waiting for its partitions");
+    Checks.check(thrown[0] instanceof MapReduceException,
+        "The job should fail with a MapReduceException, not " + thrown[0]);
+    System.out.println("ShuffleFailureCheck: OK");
+  }
+
+  /**
+   * A key that cannot be compared to another one
+   */
+  private static class Key
+  {
+    @Override
+    public int hashCode()
+    {
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (o == this)
+        return true;
+      throw new IllegalStateException("Keys cannot be compared");
+    }
+  }
+
+  private static class Identity implements Mapper<Key,Integer>
+  {
+    @Override
+    public void map(OutCollector<Key,Integer> out, Tuple<Key,Integer> t)
+    {
+      out.collect(t);
+    }
+  }
+
+  private static class Count implements Reducer<Key,Integer>
+  {
+    @Override
+    public void reduce(OutCollector<Key,Integer> out, Key key, InCollector<Key,Integer> in)
+    {
+      out.collect(new Tuple<Key,Integer>(key, in.count()));
+    }
+  }
+}
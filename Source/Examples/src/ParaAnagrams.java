@@ -15,7 +15,6 @@
     You should have received a copy of the GNU General Public License
     along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-import java.io.*;
 import java.util.*;
 import ca.uqac.dim.mapreduce.*;
 
@@ -35,7 +34,7 @@ public class ParaAnagrams
   public static void main(String[] args)
   {
     int n = 8; // We look for n-anagrams
-    InCollector<String,String> data = new WordCollector("data/English-Dictionary.txt");
+    InCollector<String,String> data = new LineCollector("data/English-Dictionary.txt");
     ParallelWorkflow<String,String> w = 
       new ParallelWorkflow<String,String>(
         new AnagramMap(), // Mapper
@@ -43,50 +42,12 @@ public class ParaAnagrams
         data // Input reader
         );
     InCollector<String,String> results = w.run();
+    System.out.println(w.getMetrics());
     System.out.println("Out of " + data.count() + 
         " words, there are " + results.count() + " " + n + "-anagrams");
     System.out.println(results);
   }
 
-  /**
-   * Create the initial tuples to be sent to the map-reduce, which
-   * contains tuples of the form
-   * (<i>w</i>, ""), for <i>w</i> each word taken from the dictionary
-   * file given as parameter.
-   */
-  private static class WordCollector extends Collector<String,String>
-  {
-    /**
-     * Creates a WordCollector from an input text file. Each line
-     * in the file should contain a single expression.
-     * @param filename The file to read
-     */
-    /*package*/ WordCollector(String filename)
-    {
-      super();
-      try
-      {
-        BufferedReader input =  new BufferedReader(new FileReader(filename));
-        try
-        {
-          String line = null;
-          while (( line = input.readLine()) != null)
-          {
-            super.collect(new Tuple<String,String>(line, ""));
-          }
-        }
-        finally
-        {
-          input.close();
-        }
-      }
-      catch (IOException ex)
-      {
-        ex.printStackTrace();
-      }
-    }
-  }
-
   /**
    * Implementation of the mapper.
    * <ol>
@@ -15,7 +15,6 @@
     You should have received a copy of the GNU General Public License
     along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-import java.io.*;
 import ca.uqac.dim.mapreduce.*;
 
 /**
@@ -35,13 +34,19 @@ public class ParaWordCount
         new ParallelWorkflow<String,String>( // Initialization
             new CountMap(k), // Mapper
             new CountReduce(n), // Reducer
-            new BigStringCollector("data/The-Metamorphosis.txt") // Reader
+            new LineCollector("data/The-Metamorphosis.txt") // Reader
             );
+    // Sum the occurrences of each word in a mapper before the shuffle
+    w.setCombiner(new SumCombine());
+    // Words are repeated a lot: shuffle them as numbers
+    w.setKeyDictionary(true);
     // Run the workflow; send results to the InCollector
     InCollector<String,String> results = w.run();
     System.out.println("------------------------------");
     System.out.println("WordCount Parallel");
     System.out.println("------------------------------");
+    System.out.println(w.getMetrics());
+    System.out.println("------------------------------");
     System.out.println("There are " + results.count() + 
         " word(s) of at least " + k + 
         " letter(s) that appear at least " + n + " times");
@@ -50,51 +55,10 @@ public class ParaWordCount
     System.out.println("------------------------------");
   }
 
-  /**
-   * Create the initial tuples to be sent to the map-reduce, which
-   * contains a single tuples of the form
-   * (<i>w</i>, ""), for <i>w</i> the whole contents of the file.
-   */
-  private static class BigStringCollector extends Collector<String,String>
-  {
-    /**
-     * Creates a WordCollector from an input text file. Words
-     * are separated by spaces or new lines.
-     * @param filename The file to read
-     */
-    /*package*/ BigStringCollector(String filename)
-    {
-      super();
-      StringBuffer sb = new StringBuffer();
-      try
-      {
-        BufferedReader input =  new BufferedReader(new FileReader(filename));
-        try
-        {
-          String line = null;
-          while (( line = input.readLine()) != null)
-          {
-            sb.append(line.trim()).append(" ");
-          }
-        }
-        finally
-        {
-          input.close();
-        }
-      }
-      catch (IOException ex)
-      {
-        ex.printStackTrace();
-      }
-      super.collect(new Tuple<String,String>(sb.toString(), ""));
-    }
-  }
-
   /**
    * Implementation of the mapper.
    * <ol>
-   * <li>Input: a tuple (<i>w</i>,""), with <i>w</i> the contents of a file
-   * (i.e. a long string)</li>
+   * <li>Input: a tuple (<i>w</i>,""), with <i>w</i> a line of the file</li>
    * <li>Output: the tuple (<i>w</i>,1), where <i>w</i> is each word
    * in the text, only if it has at least <i>k</i> letters</li>
    * </ol>
@@ -131,15 +95,35 @@ public class ParaWordCount
     }
   }
 
+  /**
+   * Implementation of the combiner.
+   * <ol>
+   * <li>Input: tuples (<i>w</i>,<i>x</i>), with <i>w</i> some word and
+   * <i>x</i> a number of occurrences</li>
+   * <li>Output: the tuple (<i>w</i>,<i>y</i>), with <i>y</i> the sum of
+   * all the <i>x</i></li>
+   * </ol>
+   * @author Sylvain Hallé
+   *
+   */
+  private static class SumCombine implements Reducer<String,String>
+  {
+    @Override
+    public void reduce(OutCollector<String,String> out, String key, InCollector<String,String> in)
+    {
+      out.collect(new Tuple<String,String>(key, "" + sum(in)));
+    }
+  }
+
   /**
    * Implementation of the reducer.
    * <ol>
-   * <li>Input: tuples (<i>w</i>,1), with <i>w</i> some word</li>
-   * <li>Output: the tuple (<i>w</i>,<i>x</i>), with <i>x</i> the number of tuples
-   * passed as input, only if <i>x</i> is greater than some threshold
+   * <li>Input: tuples (<i>w</i>,<i>x</i>), with <i>w</i> some word and
+   * <i>x</i> a number of occurrences</li>
+   * <li>Output: the tuple (<i>w</i>,<i>y</i>), with <i>y</i> the sum of
+   * all the <i>x</i>, only if <i>y</i> is greater than some threshold
    * value <i>n</i></li>
    * </ol>
-   * anagram.
    * @author Sylvain Hallé
    *
    */
@@ -161,10 +145,25 @@ public class ParaWordCount
     @Override
     public void reduce(OutCollector<String,String> out, String key, InCollector<String,String> in)
     {
-      int num_words = in.count();
+      int num_words = sum(in);
       if (num_words >= m_numOccurrences)
         out.collect(new Tuple<String,String>(key, "" + num_words));
     }
   }
 
+  /**
+   * Adds the values of all the tuples of a collector
+   * @param in The collector
+   * @return The sum of the values
+   */
+  private static int sum(InCollector<String,String> in)
+  {
+    int total = 0;
+    while (in.hasNext())
+    {
+      total += Integer.parseInt(in.next().getValue());
+    }
+    return total;
+  }
+
 }
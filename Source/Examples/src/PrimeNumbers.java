@@ -20,21 +20,22 @@ import ca.uqac.dim.mapreduce.*;
 /**
  * Demonstration of MapReduce processing with MrSim. This program
  * computes the first 1,000 prime numbers using a map-reduce algorithm.
+ * The tuples are pairs of primitive <tt>int</tt>s, processed by an
+ * {@link IntWorkflow} without ever being boxed into {@link Integer}s.
  * @author Sylvain Hallé
  */
 public class PrimeNumbers
 {
 	public static void main(String[] args)
 	{
-		SequentialWorkflow<Integer,Integer> w = 
-		    new SequentialWorkflow<Integer,Integer>(
-		        new PrimeMap(), // Mapper
-		        new PrimeReduce(), // Reducer
-		        new PrimeCollector() // Input collector
-		        );
+		IntWorkflow w = new IntWorkflow(
+		    new PrimeMap(), // Mapper
+		    new PrimeReduce(), // Reducer
+		    new PrimeCollector() // Input collector
+		    );
 		// Run the workflow
-		InCollector<Integer,Integer> results = w.run();
-		// Iterate over InCollector to display results
+		IntInCollector results = w.run();
+		// Iterate over IntInCollector to display results
 		System.out.println(results);
 	}
 	
@@ -44,7 +45,7 @@ public class PrimeNumbers
 	 * (<i>x</i>,<i>y</i>), with <i>x</i> and <i>y</i> all combination
 	 * of integers between 1 and 1,000.
 	 */
-	private static class PrimeCollector extends Collector<Integer,Integer>
+	private static class PrimeCollector extends IntCollector
 	{
 		/*package*/ PrimeCollector()
 		{
@@ -53,9 +54,7 @@ public class PrimeNumbers
 			{
 				for (int j = 1; j <= 1000; j++)
 				{
-					Tuple<Integer,Integer> t = new Tuple<Integer,Integer>(
-					    new Integer(i), new Integer(j));
-					super.collect(t);
+					super.collect(i, j);
 				}
 			}
 		}
@@ -73,15 +72,15 @@ public class PrimeNumbers
 	 * @author Sylvain Hallé
 	 *
 	 */
-	private static class PrimeMap implements Mapper<Integer,Integer>
+	private static class PrimeMap implements IntMapper
 	{
 		@Override
-		public void map(OutCollector<Integer,Integer> out, Tuple<Integer,Integer> t)
+		public void map(IntOutCollector out, IntTuple t)
 		{
-			int i = t.getKey().intValue();
-			int j = t.getValue().intValue();
+			int i = t.getKey();
+			int j = t.getValue();
 			if (i % j == 0)
-				out.collect(t);
+				out.collect(i, j);
 		}
 	}
 	
@@ -96,23 +95,21 @@ public class PrimeNumbers
 	 * @author Sylvain Hallé
 	 *
 	 */
-	private static class PrimeReduce implements Reducer<Integer,Integer>
+	private static class PrimeReduce implements IntReducer
 	{
 		@Override
-		public void reduce(OutCollector<Integer,Integer> out, Integer key, 
-		    InCollector<Integer,Integer> in)
+		public void reduce(IntOutCollector out, int key, IntInCollector in)
 		{
 			boolean ok = true;
-			int i = key.intValue();
 			while (in.hasNext() && ok)
 			{
-				Tuple<Integer,Integer> t = in.next();
-				int j = t.getValue().intValue();
-				if (j != 1 && j != i)
+				IntTuple t = in.next();
+				int j = t.getValue();
+				if (j != 1 && j != key)
 					ok = false;
 			}
 			if (ok)
-				out.collect(new Tuple<Integer,Integer>(key, new Integer(1)));
+				out.collect(key, 1);
 		}
 	}
 }
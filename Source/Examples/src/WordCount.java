@@ -15,7 +15,6 @@
     You should have received a copy of the GNU General Public License
     along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-import java.io.*;
 import ca.uqac.dim.mapreduce.*;
 
 /**
@@ -35,7 +34,7 @@ public class WordCount
         new SequentialWorkflow<String,String>( // Initialization
             new CountMap(k), // Mapper
             new CountReduce(n), // Reducer
-            new BigStringCollector("data/The-Metamorphosis.txt") // Reader
+            new LineCollector("data/The-Metamorphosis.txt") // Reader
             );
     // Run the workflow; send results to the InCollector
     InCollector<String,String> results = w.run();
@@ -46,51 +45,10 @@ public class WordCount
     System.out.println(results);
   }
 
-  /**
-   * Create the initial tuples to be sent to the map-reduce, which
-   * contains a single tuples of the form
-   * (<i>w</i>, ""), for <i>w</i> the whole contents of the file.
-   */
-  private static class BigStringCollector extends Collector<String,String>
-  {
-    /**
-     * Creates a WordCollector from an input text file. Words
-     * are separated by spaces or new lines.
-     * @param filename The file to read
-     */
-    /*package*/ BigStringCollector(String filename)
-    {
-      super();
-      StringBuffer sb = new StringBuffer();
-      try
-      {
-        BufferedReader input =  new BufferedReader(new FileReader(filename));
-        try
-        {
-          String line = null;
-          while (( line = input.readLine()) != null)
-          {
-            sb.append(line.trim()).append(" ");
-          }
-        }
-        finally
-        {
-          input.close();
-        }
-      }
-      catch (IOException ex)
-      {
-        ex.printStackTrace();
-      }
-      super.collect(new Tuple<String,String>(sb.toString(), ""));
-    }
-  }
-
   /**
    * Implementation of the mapper.
    * <ol>
-   * <li>Input: a tuple (<i>w</i>,""), with <i>w</i> the contents of a file
-   * (i.e. a long string)</li>
+   * <li>Input: a tuple (<i>w</i>,""), with <i>w</i> a line of the file</li>
    * <li>Output: the tuple (<i>w</i>,1), where <i>w</i> is each word
    * in the text, only if it has at least <i>k</i> letters</li>
    * </ol>
@@ -0,0 +1,425 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinates the execution of a map-reduce job whose reduce phase is
+ * an {@link Aggregator}. The output tuples of the mappers are not
+ * collected: each of them is folded right away into the accumulator
+ * of its key. Hence, neither the map output nor the groups of tuples
+ * are ever stored, only one accumulator per key.
+ * <p>
+ * By default, the job runs in the calling thread. When a
+ * {@link ResourceManager} is given, the source is divided into splits,
+ * and each split is mapped by a task with accumulators of its own, so
+ * that the tasks never compete for them. The accumulators of the tasks
+ * are then divided into partitions by key, and the accumulators of
+ * each partition are merged and finished in a task of their own.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class AggregatingWorkflow<K,V,A> implements Workflow<K,V>
+{
+  private Mapper<K,V> m_mapper = null;
+  private Aggregator<K,V,A> m_aggregator = null;
+  private InCollector<K,V> m_source = null;
+  private ResourceManager<?,?> m_manager = null;
+  private Partitioner<K> m_partitioner = new HashPartitioner<K>();
+  private int m_numSplits = 2 * Runtime.getRuntime().availableProcessors();
+  private int m_numPartitions = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of tuples in a split, for sources that cannot be divided
+   * by themselves and whose size is unknown
+   */
+  private static final int DEFAULT_SPLIT_SIZE = 1024;
+
+  /**
+   * The measurements of the last run
+   */
+  private WorkflowMetrics m_metrics = new WorkflowMetrics();
+
+  /**
+   * Create an instance of AggregatingWorkflow.
+   * @param m The {@link Mapper} to use in the map phase
+   * @param a The {@link Aggregator} to use in the reduce phase
+   * @param c The {@link InCollector} to use as the input source of tuples
+   */
+  public AggregatingWorkflow(Mapper<K,V> m, Aggregator<K,V,A> a, InCollector<K,V> c)
+  {
+    super();
+    setMapper(m);
+    setAggregator(a);
+    setSource(c);
+  }
+
+  public void setMapper(Mapper<K,V> m)
+  {
+    m_mapper = m;
+  }
+
+  public void setAggregator(Aggregator<K,V,A> a)
+  {
+    m_aggregator = a;
+  }
+
+  public void setSource(InCollector<K,V> c)
+  {
+    m_source = c;
+  }
+
+  /**
+   * Sets the {@link ResourceManager} whose worker threads run the map
+   * and reduce tasks. By default, there is none, and the job runs in
+   * the calling thread.
+   * @param rm The manager, or null to run the job in the calling thread
+   */
+  public void setManager(ResourceManager<?,?> rm)
+  {
+    m_manager = rm;
+  }
+
+  /**
+   * Sets the number of map tasks, when the job runs in parallel
+   * @param n The number of tasks
+   */
+  public void setNumSplits(int n)
+  {
+    m_numSplits = Math.max(1, n);
+  }
+
+  /**
+   * Sets the number of partitions of the accumulators, that is, the
+   * number of reduce tasks, when the job runs in parallel
+   * @param n The number of partitions
+   */
+  public void setNumPartitions(int n)
+  {
+    m_numPartitions = Math.max(1, n);
+  }
+
+  /**
+   * Sets the {@link Partitioner} dividing the accumulators among the
+   * reduce tasks. By default, a {@link HashPartitioner} is used.
+   * @param p The partitioner
+   */
+  public void setPartitioner(Partitioner<K> p)
+  {
+    m_partitioner = p;
+  }
+
+  /**
+   * Runs the map-reduce job.
+   * @return An InCollector containing all output tuples
+   * @throws MapReduceException If the job runs in parallel, and a
+   *   mapper or the aggregator has thrown an exception
+   */
+  @Override
+  public InCollector<K,V> run()
+  {
+    if (m_mapper == null || m_aggregator == null || m_source == null)
+      return null;
+    m_metrics = new WorkflowMetrics();
+    long start = System.nanoTime();
+    List<Accumulators> tasks = new ArrayList<Accumulators>();
+    if (m_manager == null)
+    {
+      Accumulators acc = new Accumulators();
+      map(m_source, acc);
+      tasks.add(acc);
+    }
+    else
+      mapParallel(tasks);
+    long end_of_map = System.nanoTime();
+    long map_output = 0;
+    long num_accumulators = 0;
+    for (Accumulators acc : tasks)
+    {
+      map_output += acc.m_numTuples;
+      num_accumulators += acc.m_slots.size();
+    }
+    m_metrics.setMapNanos(end_of_map - start);
+    m_metrics.setMapOutputTuples(map_output);
+    m_metrics.setPeakIntermediateTuples(num_accumulators);
+
+    Collector<K,V> out = new Collector<K,V>();
+    List<Map<K,Slot<A>>> partitions = null;
+    if (m_manager == null)
+    {
+      partitions = new ArrayList<Map<K,Slot<A>>>();
+      partitions.add(tasks.get(0).m_slots);
+      finish(tasks.get(0).m_slots, out);
+    }
+    else
+      partitions = reduceParallel(tasks, out);
+    for (Map<K,Slot<A>> partition : partitions)
+    {
+      for (Slot<A> slot : partition.values())
+      {
+        m_metrics.addGroup(slot.m_count);
+      }
+    }
+    long end = System.nanoTime();
+    m_metrics.setReduceNanos(end - end_of_map);
+    m_metrics.setTotalNanos(end - start);
+    m_metrics.setReduceOutputTuples(out.count());
+    return out;
+  }
+
+  /**
+   * Returns the measurements taken during the last run. Since groups of
+   * tuples are never built, there is no shuffle time; the size of a
+   * group is the number of values folded into its accumulator.
+   * @return The metrics, empty if the job hasn't executed yet
+   */
+  @Override
+  public WorkflowMetrics getMetrics()
+  {
+    return m_metrics;
+  }
+
+  /**
+   * Maps all the tuples of a source
+   * @param source The source
+   * @param acc The accumulators receiving the map output
+   */
+  private void map(InCollector<K,V> source, Accumulators acc)
+  {
+    long num_tuples = 0;
+    source.rewind();
+    while (source.hasNext())
+    {
+      m_mapper.map(acc, source.next());
+      num_tuples++;
+    }
+    m_metrics.addMapInputTuples(num_tuples);
+  }
+
+  /**
+   * Divides the source into splits, and maps each split in a task of
+   * its own. A {@link SplittableCollector} divides itself; any other
+   * source is read here and cut into splits with the same number of
+   * tuples.
+   * @param tasks The list receiving the accumulators of the tasks
+   */
+  private void mapParallel(List<Accumulators> tasks)
+  {
+    List<InCollector<K,V>> splits = null;
+    if (m_source instanceof SplittableCollector<?,?>)
+      splits = ((SplittableCollector<K,V>) m_source).getSplits(m_numSplits);
+    else
+    {
+      splits = new ArrayList<InCollector<K,V>>();
+      int count = m_source.count();
+      int split_size = DEFAULT_SPLIT_SIZE;
+      if (count >= 0)
+        split_size = Math.max(1, (count + m_numSplits - 1) / m_numSplits);
+      m_source.rewind();
+      Collector<K,V> split = new Collector<K,V>();
+      while (m_source.hasNext())
+      {
+        split.toList().add(m_source.next());
+        if (split.count() >= split_size)
+        {
+          splits.add(split);
+          split = new Collector<K,V>();
+        }
+      }
+      if (split.count() > 0)
+        splits.add(split);
+    }
+    for (final InCollector<K,V> split : splits)
+    {
+      final Accumulators acc = new Accumulators();
+      tasks.add(acc);
+      m_manager.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          long t = System.nanoTime();
+          map(split, acc);
+          m_metrics.getMapTaskNanos().record(System.nanoTime() - t);
+        }
+      });
+    }
+    m_manager.waitThreads();
+  }
+
+  /**
+   * Divides the accumulators of each map task into partitions, then
+   * merges and finishes the accumulators of each partition in a task
+   * of its own
+   * @param tasks The accumulators of the map tasks
+   * @param out The collector of the final results
+   * @return The merged accumulators of each partition
+   */
+  private List<Map<K,Slot<A>>> reduceParallel(List<Accumulators> tasks, final Collector<K,V> out)
+  {
+    if (tasks.isEmpty())
+      return new ArrayList<Map<K,Slot<A>>>();
+    final int num_partitions = m_numPartitions;
+    final List<List<Map<K,Slot<A>>>> divided = new ArrayList<List<Map<K,Slot<A>>>>(tasks.size());
+    for (final Accumulators acc : tasks)
+    {
+      final List<Map<K,Slot<A>>> parts = new ArrayList<Map<K,Slot<A>>>(num_partitions);
+      divided.add(parts);
+      m_manager.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          parts.addAll(acc.divide(num_partitions));
+        }
+      });
+    }
+    m_manager.waitThreads();
+    final List<Map<K,Slot<A>>> partitions = new ArrayList<Map<K,Slot<A>>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      final Map<K,Slot<A>> merged = divided.get(0).get(i);
+      partitions.add(merged);
+      final int partition = i;
+      m_manager.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          long t = System.nanoTime();
+          for (int j = 1; j < divided.size(); j++)
+          {
+            merge(merged, divided.get(j).get(partition));
+          }
+          finish(merged, out);
+          m_metrics.getReduceTaskNanos().record(System.nanoTime() - t);
+        }
+      });
+    }
+    m_manager.waitThreads();
+    return partitions;
+  }
+
+  /**
+   * Merges accumulators into others
+   * @param into The accumulators to update
+   * @param from The accumulators to merge into them
+   */
+  private void merge(Map<K,Slot<A>> into, Map<K,Slot<A>> from)
+  {
+    for (Map.Entry<K,Slot<A>> entry : from.entrySet())
+    {
+      Slot<A> slot = into.get(entry.getKey());
+      Slot<A> other = entry.getValue();
+      if (slot == null)
+        into.put(entry.getKey(), other);
+      else
+      {
+        slot.m_acc = m_aggregator.merge(slot.m_acc, other.m_acc);
+        slot.m_count += other.m_count;
+      }
+    }
+  }
+
+  /**
+   * Writes the output tuples of a set of accumulators
+   * @param slots The accumulators
+   * @param out The collector of the final results
+   */
+  private void finish(Map<K,Slot<A>> slots, Collector<K,V> out)
+  {
+    TaskBuffer<K,V> buffer = new TaskBuffer<K,V>();
+    for (Map.Entry<K,Slot<A>> entry : slots.entrySet())
+    {
+      m_aggregator.finish(buffer, entry.getKey(), entry.getValue().m_acc);
+    }
+    buffer.flushTo(out);
+  }
+
+  /**
+   * The accumulator of a key, and the number of values folded into it
+   */
+  private static class Slot<A>
+  {
+    A m_acc = null;
+    long m_count = 0;
+
+    Slot(A acc)
+    {
+      m_acc = acc;
+    }
+  }
+
+  /**
+   * Output collector of a mapper, folding each tuple into the
+   * accumulator of its key. It is written by a single task, and needs
+   * no synchronization.
+   */
+  private class Accumulators implements OutCollector<K,V>
+  {
+    private Map<K,Slot<A>> m_slots = new HashMap<K,Slot<A>>();
+    private long m_numTuples = 0;
+
+    @Override
+    public void collect(Tuple<K,V> t)
+    {
+      K key = t.getKey();
+      Slot<A> slot = m_slots.get(key);
+      if (slot == null)
+      {
+        slot = new Slot<A>(m_aggregator.init(key));
+        m_slots.put(key, slot);
+      }
+      slot.m_acc = m_aggregator.accumulate(slot.m_acc, t.getValue());
+      slot.m_count++;
+      m_numTuples++;
+    }
+
+    /**
+     * Divides the accumulators into partitions, with the partitioner
+     * of the workflow
+     * @param num_partitions The number of partitions
+     * @return The accumulators of each partition
+     */
+    List<Map<K,Slot<A>>> divide(int num_partitions)
+    {
+      List<Map<K,Slot<A>>> parts = new ArrayList<Map<K,Slot<A>>>(num_partitions);
+      for (int i = 0; i < num_partitions; i++)
+      {
+        parts.add(new HashMap<K,Slot<A>>());
+      }
+      for (Map.Entry<K,Slot<A>> entry : m_slots.entrySet())
+      {
+        int i = m_partitioner.getPartition(entry.getKey(), num_partitions);
+        parts.get(i).put(entry.getKey(), entry.getValue());
+      }
+      return parts;
+    }
+
+    @Override
+    public void rewind()
+    {
+      // Nothing to do
+    }
+  }
+}
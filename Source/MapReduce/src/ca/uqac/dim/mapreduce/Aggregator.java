@@ -0,0 +1,73 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Reduce phase written as a fold over the values of each key. Instead
+ * of receiving all the tuples of a group at once, like a
+ * {@link Reducer}, an aggregator keeps a running result (an
+ * <em>accumulator</em>) for each key, and updates it with each value
+ * as it comes out of the map phase. The tuples of a group are hence
+ * never stored: only one accumulator per key is. Counting and summing
+ * are typical examples, with a number as the accumulator.
+ * <p>
+ * Accumulators of the same key built from different parts of the map
+ * output are combined with {@link #merge(Object, Object)}, which must
+ * therefore not depend on the way the values were divided. An
+ * {@link AggregatingWorkflow} runs the map-reduce job with an
+ * aggregator.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface Aggregator<K,V,A>
+{
+	/**
+	 * Creates the accumulator of a key, before any value is seen
+	 * @param key The key
+	 * @return The accumulator
+	 */
+	public A init(K key);
+
+	/**
+	 * Adds a value to an accumulator
+	 * @param acc The accumulator
+	 * @param value The value of a tuple output by the map phase
+	 * @return The updated accumulator, which can be <tt>acc</tt>
+	 *   itself if it is mutable
+	 */
+	public A accumulate(A acc, V value);
+
+	/**
+	 * Combines two accumulators of the same key
+	 * @param acc1 The first accumulator
+	 * @param acc2 The second accumulator
+	 * @return The combined accumulator, which can be one of the two
+	 *   arguments
+	 */
+	public A merge(A acc1, A acc2);
+
+	/**
+	 * Writes the output tuples of a key, once all its values have been
+	 * accumulated
+	 * @param out A {@link OutCollector} that will be used to write output tuples
+	 * @param key The key
+	 * @param acc The accumulator of the key
+	 */
+	public void finish(OutCollector<K,V> out, K key, A acc);
+}
@@ -0,0 +1,39 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.Collection;
+
+/**
+ * {@link OutCollector} that can receive many tuples in a single
+ * operation. {@link TaskBuffer#flushTo(OutCollector)} hands its whole
+ * contents to such a collector at once, so that a collector shared by
+ * parallel tasks is only locked once per flush, instead of once per
+ * tuple.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ interface BulkCollector<K,V> extends OutCollector<K,V>
+{
+	/**
+	 * Add a collection of tuples to the collector
+	 * @param list A collection of {@link Tuple}
+	 */
+	public void addAll(Collection<Tuple<K,V>> list);
+}
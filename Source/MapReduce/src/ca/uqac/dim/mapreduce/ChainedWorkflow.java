@@ -0,0 +1,248 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinates the execution of a pipeline of map and reduce stages,
+ * the output of each stage being the input of the next one. For
+ * example, the following pipeline maps the source with <tt>m1</tt>
+ * then <tt>m2</tt>, reduces the result with <tt>r1</tt>, and maps the
+ * output of <tt>r1</tt> with <tt>m3</tt> before reducing it with
+ * <tt>r2</tt>:
+ * <pre>
+ * ChainedWorkflow&lt;K,V&gt; w = new ChainedWorkflow&lt;K,V&gt;(source);
+ * w.addMapper(m1).addMapper(m2).addReducer(r1).addMapper(m3).addReducer(r2);
+ * InCollector&lt;K,V&gt; results = w.run();
+ * </pre>
+ * This gives the same results as running a {@link SequentialWorkflow}
+ * for each reducer, with the output of one as the source of the next,
+ * but without building the output of each stage:
+ * <ul>
+ * <li>consecutive mappers are fused: each tuple output by a mapper is
+ *   immediately given to the next one;</li>
+ * <li>each tuple output by a reducer is immediately given to the
+ *   mappers of the next stage.</li>
+ * </ul>
+ * The only tuples kept between two stages are thus those that must be
+ * grouped by key before a reducer. A reducer with no mapper before it
+ * receives its input unchanged; a pipeline that ends with mappers
+ * outputs their results without reducing them.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class ChainedWorkflow<K,V> implements Workflow<K,V>
+{
+  private InCollector<K,V> m_source = null;
+
+  /**
+   * The stages of the pipeline. Each stage is a (possibly empty)
+   * sequence of mappers, followed by a reducer, except possibly for
+   * the last one.
+   */
+  private List<Stage<K,V>> m_stages = new ArrayList<Stage<K,V>>();
+
+  /**
+   * The measurements of the last run
+   */
+  private WorkflowMetrics m_metrics = new WorkflowMetrics();
+
+  /**
+   * Create an instance of ChainedWorkflow with no stage
+   * @param c The {@link InCollector} to use as the input source of tuples
+   */
+  public ChainedWorkflow(InCollector<K,V> c)
+  {
+    super();
+    setSource(c);
+  }
+
+  public void setSource(InCollector<K,V> c)
+  {
+    m_source = c;
+  }
+
+  /**
+   * Appends a mapper to the pipeline
+   * @param m The mapper
+   * @return This workflow
+   */
+  public ChainedWorkflow<K,V> addMapper(Mapper<K,V> m)
+  {
+    lastStage().m_mappers.add(m);
+    return this;
+  }
+
+  /**
+   * Appends a reducer to the pipeline
+   * @param r The reducer
+   * @return This workflow
+   */
+  public ChainedWorkflow<K,V> addReducer(Reducer<K,V> r)
+  {
+    lastStage().m_reducer = r;
+    return this;
+  }
+
+  /**
+   * Returns the stage to which a new mapper or reducer is appended:
+   * the last stage, unless it already has its reducer
+   * @return The stage
+   */
+  private Stage<K,V> lastStage()
+  {
+    if (m_stages.isEmpty() || m_stages.get(m_stages.size() - 1).m_reducer != null)
+      m_stages.add(new Stage<K,V>());
+    return m_stages.get(m_stages.size() - 1);
+  }
+
+  public InCollector<K,V> run()
+  {
+    if (m_source == null)
+      return null;
+    m_metrics = new WorkflowMetrics();
+    long start = System.nanoTime();
+    Collector<K,V> out = new Collector<K,V>();
+    // Build the entry point of each stage, from the last one: the
+    // mappers of a stage write to the stage's intermediate collector
+    // if it has a reducer, and to the next stage otherwise
+    int num_stages = m_stages.size();
+    List<OutCollector<K,V>> entries = new ArrayList<OutCollector<K,V>>(num_stages + 1);
+    List<Collector<K,V>> intermediates = new ArrayList<Collector<K,V>>(num_stages);
+    for (int i = 0; i <= num_stages; i++)
+    {
+      entries.add(out);
+      intermediates.add(null);
+    }
+    for (int i = num_stages - 1; i >= 0; i--)
+    {
+      Stage<K,V> stage = m_stages.get(i);
+      OutCollector<K,V> target = entries.get(i + 1);
+      if (stage.m_reducer != null)
+      {
+        Collector<K,V> intermediate = new Collector<K,V>();
+        intermediates.set(i, intermediate);
+        target = intermediate;
+      }
+      for (int j = stage.m_mappers.size() - 1; j >= 0; j--)
+      {
+        target = new MappingCollector<K,V>(stage.m_mappers.get(j), target);
+      }
+      entries.set(i, target);
+    }
+    // Push the source through the pipeline up to the first reducer
+    OutCollector<K,V> entry = entries.get(0);
+    long num_tuples = 0;
+    m_source.rewind();
+    while (m_source.hasNext())
+    {
+      entry.collect(m_source.next());
+      num_tuples++;
+    }
+    entry = null;
+    m_metrics.addMapInputTuples(num_tuples);
+    m_metrics.setMapOutputTuples(mapOutputTuples(intermediates, out));
+    long end_of_map = System.nanoTime();
+    m_metrics.setMapNanos(end_of_map - start);
+    // Each reducer pushes its output through the pipeline up to the
+    // next reducer
+    long shuffle = 0;
+    for (int i = 0; i < num_stages; i++)
+    {
+      Collector<K,V> intermediate = intermediates.get(i);
+      if (intermediate == null)
+        continue;
+      intermediates.set(i, null);
+      long before = System.nanoTime();
+      m_metrics.setPeakIntermediateTuples(Math.max(m_metrics.getPeakIntermediateTuples(), intermediate.count()));
+      Map<K,Collector<K,V>> groups = intermediate.subCollectors();
+      // The groups now hold the tuples; the entry points of this stage
+      // and of the previous ones, which lead to the intermediate
+      // collector, receive nothing anymore
+      intermediate.toList().clear();
+      for (int j = 0; j <= i; j++)
+      {
+        entries.set(j, null);
+      }
+      shuffle += System.nanoTime() - before;
+      Reducer<K,V> reducer = m_stages.get(i).m_reducer;
+      OutCollector<K,V> next = entries.get(i + 1);
+      // Each group is dropped once reduced, so that the tuples of this
+      // stage are released while the next stage fills up
+      Iterator<Map.Entry<K,Collector<K,V>>> it = groups.entrySet().iterator();
+      while (it.hasNext())
+      {
+        Map.Entry<K,Collector<K,V>> group = it.next();
+        it.remove();
+        m_metrics.addGroup(group.getValue().count());
+        long t = System.nanoTime();
+        reducer.reduce(next, group.getKey(), group.getValue());
+        m_metrics.getReduceTaskNanos().record(System.nanoTime() - t);
+      }
+    }
+    long end = System.nanoTime();
+    m_metrics.setShuffleNanos(shuffle);
+    m_metrics.setReduceNanos(end - end_of_map);
+    m_metrics.setTotalNanos(end - start);
+    m_metrics.setReduceOutputTuples(out.count());
+    return out;
+  }
+
+  /**
+   * Returns the number of tuples that reach the first reducer
+   * @param intermediates The intermediate collectors of the stages
+   * @param out The output of the job
+   * @return The size of the intermediate collector of the first stage
+   *   that has one, or the size of the output if no stage has a reducer
+   */
+  private static <K,V> int mapOutputTuples(List<Collector<K,V>> intermediates, Collector<K,V> out)
+  {
+    for (Collector<K,V> c : intermediates)
+    {
+      if (c != null)
+        return c.count();
+    }
+    return out.count();
+  }
+
+  /**
+   * Returns the measurements taken during the last run. The map phase
+   * is the processing of the source up to the first reducer; the
+   * shuffle and reduce phases cover all the following stages. The
+   * group sizes and reduce task durations are those of all reducers.
+   * @return The metrics, empty if the job hasn't executed yet
+   */
+  public WorkflowMetrics getMetrics()
+  {
+    return m_metrics;
+  }
+
+  /**
+   * A sequence of mappers followed by a reducer
+   */
+  private static class Stage<K,V>
+  {
+    List<Mapper<K,V>> m_mappers = new ArrayList<Mapper<K,V>>();
+    Reducer<K,V> m_reducer = null;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List stored in a sequence of arrays, called segments. The first
+ * segment holds {@value #FIRST_SIZE} elements, and each following
+ * segment is twice as large as the previous one. Hence:
+ * <ul>
+ * <li>appending an element never copies the existing elements (a new
+ *   segment is simply allocated when the last one is full);</li>
+ * <li>the element at any index is found in constant time;</li>
+ * <li>iterating over the list reads consecutive array cells, rather
+ *   than following one pointer per element like a linked list.</li>
+ * </ul>
+ * Removing an element shifts all the elements that follow it, and
+ * should therefore be avoided on large lists.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class ChunkedList<E> extends AbstractList<E> implements RandomAccess
+{
+  /**
+   * The size of the first segment. Must be a power of two.
+   */
+  private static final int FIRST_SIZE = 8;
+
+  /**
+   * The base-2 logarithm of {@link #FIRST_SIZE}
+   */
+  private static final int FIRST_SHIFT = 3;
+
+  /**
+   * The segments. Segment <i>k</i> has 2<sup><i>k</i></sup> times the
+   * size of the first segment; segments are allocated only when needed.
+   */
+  private Object[][] m_segments = new Object[4][];
+
+  /**
+   * The number of elements in the list
+   */
+  private int m_size = 0;
+
+  @Override
+  public boolean add(E e)
+  {
+    int k = segment(m_size);
+    if (k >= m_segments.length)
+      m_segments = Arrays.copyOf(m_segments, m_segments.length * 2);
+    Object[] seg = m_segments[k];
+    if (seg == null)
+    {
+      seg = new Object[FIRST_SIZE << k];
+      m_segments[k] = seg;
+    }
+    seg[offset(m_size, k)] = e;
+    m_size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends E> c)
+  {
+    for (E e : c)
+    {
+      add(e);
+    }
+    return !c.isEmpty();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public E get(int index)
+  {
+    checkIndex(index);
+    int k = segment(index);
+    return (E) m_segments[k][offset(index, k)];
+  }
+
+  @Override
+  public E set(int index, E e)
+  {
+    E old = get(index);
+    int k = segment(index);
+    m_segments[k][offset(index, k)] = e;
+    return old;
+  }
+
+  @Override
+  public E remove(int index)
+  {
+    E old = get(index);
+    for (int i = index + 1; i < m_size; i++)
+    {
+      int k = segment(i);
+      int j = segment(i - 1);
+      m_segments[j][offset(i - 1, j)] = m_segments[k][offset(i, k)];
+    }
+    m_size--;
+    int k = segment(m_size);
+    m_segments[k][offset(m_size, k)] = null;
+    modCount++;
+    return old;
+  }
+
+  @Override
+  public void clear()
+  {
+    m_segments = new Object[4][];
+    m_size = 0;
+    modCount++;
+  }
+
+  @Override
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Finds the segment containing an index
+   * @param index The index
+   * @return The number of the segment
+   */
+  private static int segment(int index)
+  {
+    int j = index + FIRST_SIZE;
+    return (31 - Integer.numberOfLeadingZeros(j)) - FIRST_SHIFT;
+  }
+
+  /**
+   * Finds the position of an index inside its segment
+   * @param index The index
+   * @param k The number of the segment containing the index
+   * @return The position in the segment
+   */
+  private static int offset(int index, int k)
+  {
+    return index + FIRST_SIZE - (FIRST_SIZE << k);
+  }
+
+  /**
+   * Checks that an index is within the bounds of the list
+   * @param index The index
+   */
+  private void checkIndex(int index)
+  {
+    if (index < 0 || index >= m_size)
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_size);
+  }
+}
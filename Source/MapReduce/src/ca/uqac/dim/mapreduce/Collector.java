@@ -28,16 +28,40 @@ import java.util.*;
  * <li>Partition the set of tuples into a set of Collectors, grouping
  * tuples by their key, using the {@link Collector#subCollector(Object)} and 
  * {@link Collector#subCollectors()} methods</li> 
+ * <li>Divide the set of tuples into splits, using the
+ * {@link Collector#getSplits(int)} method</li>
  * </ol>
+ * The tuples are stored in a list of growing arrays rather than in a
+ * linked list, so that adding a tuple never copies the previous ones,
+ * and enumerating them reads contiguous memory.
  * @author Sylvain Hallé
  * @version 1.1
  *
  */
-public class Collector<K,V> implements InCollector<K,V>, OutCollector<K,V>
+public class Collector<K,V> implements SplittableCollector<K,V>, BulkCollector<K,V>
 {
-  private List<Tuple<K,V>> m_tuples = new LinkedList<Tuple<K,V>>();
+  private List<Tuple<K,V>> m_tuples = null;
   private Iterator<Tuple<K,V>> m_it = null;
 
+  /**
+   * Create an empty Collector
+   */
+  public Collector()
+  {
+    this(new ChunkedList<Tuple<K,V>>());
+  }
+
+  /**
+   * Create a Collector on top of an existing list of tuples. The list
+   * is not copied.
+   * @param tuples The list
+   */
+  /*package*/ Collector(List<Tuple<K,V>> tuples)
+  {
+    super();
+    m_tuples = tuples;
+  }
+
   /**
    * Return the Collector's contents as a list of tuples
    * @return The list of tuples
@@ -51,6 +75,7 @@ public class Collector<K,V> implements InCollector<K,V>, OutCollector<K,V>
    * Add a collection of tuples to the Collector
    * @param list A collection of {@link Tuple}
    */
+  @Override
   public void addAll(Collection<Tuple<K,V>> list)
   {
     synchronized (this) {
@@ -112,15 +137,43 @@ public class Collector<K,V> implements InCollector<K,V>, OutCollector<K,V>
         Collector<K,V> c = out.get(key);
 
         if (c == null)
+        {
           c = new Collector<K,V>();
+          out.put(key, c);
+        }
 
-        c.collect(t);
-        out.put(key, c);
+        // c is not shared yet: no need to go through collect()
+        c.m_tuples.add(t);
       }
     }
     return out;
   }
 
+  /**
+   * Divides the Collector into splits containing the same number of
+   * tuples (except for the last one). The splits are views over the
+   * tuples of this Collector: no tuple is copied, and the Collector
+   * must not be modified while the splits are in use.
+   * @param num_splits The number of splits
+   * @return The list of splits
+   */
+  @Override
+  public List<InCollector<K,V>> getSplits(int num_splits)
+  {
+    List<InCollector<K,V>> splits = new ArrayList<InCollector<K,V>>();
+    synchronized (this)
+    {
+      int size = m_tuples.size();
+      int split_size = Math.max(1, (size + num_splits - 1) / Math.max(1, num_splits));
+      for (int start = 0; start < size; start += split_size)
+      {
+        int end = Math.min(size, start + split_size);
+        splits.add(new Collector<K,V>(m_tuples.subList(start, end)));
+      }
+    }
+    return splits;
+  }
+
   @Override
   public boolean hasNext()
   {
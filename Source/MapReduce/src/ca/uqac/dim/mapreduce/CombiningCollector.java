@@ -0,0 +1,91 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.Map;
+
+/**
+ * Output collector used to pre-aggregate the output of a single map
+ * task. The tuples are first kept in a local {@link Collector}; when
+ * the task is over, {@link #flush()} groups them by key and sends
+ * each group to a combiner, whose output is written to the actual
+ * destination of the map phase.
+ * <p>
+ * The combiner is a {@link Reducer}; it can be the job's reducer
+ * itself, as long as the reduction is associative (and the reducer
+ * accepts its own output tuples as input). A combiner can be called
+ * zero, one or many times on the same key, so the result of the job
+ * must not depend on it.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class CombiningCollector<K,V> implements OutCollector<K,V>
+{
+  private Collector<K,V> m_buffer = new Collector<K,V>();
+  private Reducer<K,V> m_combiner = null;
+  private OutCollector<K,V> m_out = null;
+
+  /**
+   * Create a CombiningCollector
+   * @param combiner The {@link Reducer} to apply to each group
+   * @param out The collector where the combined tuples are written
+   */
+  CombiningCollector(Reducer<K,V> combiner, OutCollector<K,V> out)
+  {
+    super();
+    m_combiner = combiner;
+    m_out = out;
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    // The buffer is private to the task: skip the synchronized collect()
+    m_buffer.toList().add(t);
+  }
+
+  /**
+   * Returns the number of tuples waiting to be combined
+   * @return The number of tuples
+   */
+  public int size()
+  {
+    return m_buffer.toList().size();
+  }
+
+  /**
+   * Combines the buffered tuples and writes the result to the
+   * destination collector. The buffer is emptied.
+   */
+  public void flush()
+  {
+    Map<K,Collector<K,V>> groups = m_buffer.subCollectors();
+    m_buffer = new Collector<K,V>();
+    for (Map.Entry<K,Collector<K,V>> entry : groups.entrySet())
+    {
+      m_combiner.reduce(m_out, entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void rewind()
+  {
+    m_buffer.rewind();
+  }
+}
@@ -0,0 +1,39 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Condition telling an {@link IterativeWorkflow} when to stop.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface Convergence<K,V>
+{
+	/**
+	 * Decides whether the iterations can stop
+	 * @param iteration The number of iterations done so far, starting
+	 *   at 1
+	 * @param state All the tuples produced by the iterations so far:
+	 *   for each key, the tuples output by its last reduction
+	 * @param changes The tuples of the state that were changed by the
+	 *   last iteration
+	 * @return true if the iterations can stop
+	 */
+	public boolean hasConverged(int iteration, InCollector<K,V> state, InCollector<K,V> changes);
+}
@@ -0,0 +1,50 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * A {@link Reducer} whose work on a large group can be divided. The
+ * tuples of the group are cut into parts, each part is reduced by
+ * {@link #combine(OutCollector, Object, InCollector)} independently of
+ * the others, and the reducer is then called once on the tuples
+ * produced by all the parts. Summing the occurrences of a word is an
+ * example: the parts can be summed separately, and the reducer adds
+ * up the partial sums.
+ * <p>
+ * This is what a {@link ParallelWorkflow} does with the oversized
+ * groups of a skewed job when its reduce phase runs in fork/join
+ * mode; see {@link ParallelWorkflow#setForkJoinReduce(int)}.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface DecomposableReducer<K,V> extends Reducer<K,V>
+{
+	/**
+	 * Reduces a part of a group into partial results. The tuples output
+	 * by this method must be of the same kind as those produced by the
+	 * map phase, since the reducer receives them in place of the
+	 * part.
+	 * @param out A {@link OutCollector} that will be used to write the
+	 *   partial results
+	 * @param key The key of the group
+	 * @param in An {@link InCollector} containing some of the tuples of
+	 *   the group
+	 */
+	public void combine(OutCollector<K,V> out, K key, InCollector<K,V> in);
+}
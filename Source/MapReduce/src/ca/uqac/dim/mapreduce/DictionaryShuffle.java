@@ -0,0 +1,344 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Output collector of the map phase that replaces each key by a
+ * number. The first time a key is collected, it is given the next
+ * free number (its <em>id</em>), and the key object is kept in a
+ * dictionary; the tuples themselves are not kept, only the id and
+ * the value of each of them, in arrays of the partition of the id.
+ * Since the ids are dense, a partition is grouped with a counting sort
+ * on the ids, without hashing or comparing a single key. The keys are
+ * only looked up again in the dictionary when the groups are handed to
+ * the reducers, and all the tuples of a group then share the same key
+ * object.
+ * <p>
+ * This pays off when a few distinct keys are repeated in many tuples,
+ * as with the words of a text. The partition of a key is given by its
+ * id, and not by a {@link Partitioner}. The null key is given an id like
+ * any other key.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class DictionaryShuffle<K,V> implements BulkCollector<K,V>
+{
+  private final ConcurrentHashMap<K,Integer> m_ids = new ConcurrentHashMap<K,Integer>();
+
+  /**
+   * The id of the null key, which the map cannot hold, or -1 if it has
+   * none yet
+   */
+  private volatile int m_nullId = -1;
+  private Object[] m_keys = new Object[1024];
+  private int m_numKeys = 0;
+  private final List<Partition> m_partitions;
+
+  /**
+   * Create a DictionaryShuffle
+   * @param num_partitions The number of partitions
+   */
+  DictionaryShuffle(int num_partitions)
+  {
+    super();
+    m_partitions = new ArrayList<Partition>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      m_partitions.add(new Partition());
+    }
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    int id = encode(t.getKey());
+    m_partitions.get(id % m_partitions.size()).add(id, t.getValue());
+  }
+
+  /**
+   * Add a collection of tuples to the partitions. The keys are all
+   * encoded first, so that each partition is then written only once.
+   * @param list A collection of {@link Tuple}
+   */
+  @Override
+  public void addAll(Collection<Tuple<K,V>> list)
+  {
+    int num_partitions = m_partitions.size();
+    int[] ids = new int[list.size()];
+    Object[] values = new Object[list.size()];
+    int[] counts = new int[num_partitions];
+    int n = 0;
+    for (Tuple<K,V> t : list)
+    {
+      ids[n] = encode(t.getKey());
+      values[n] = t.getValue();
+      counts[ids[n] % num_partitions]++;
+      n++;
+    }
+    for (int i = 0; i < num_partitions; i++)
+    {
+      if (counts[i] > 0)
+        m_partitions.get(i).addAll(ids, values, n, i, num_partitions, counts[i]);
+    }
+  }
+
+  /**
+   * Returns the number of partitions
+   * @return The number of partitions
+   */
+  public int getNumPartitions()
+  {
+    return m_partitions.size();
+  }
+
+  /**
+   * Count the number of tuples in all the partitions
+   * @return The number of tuples
+   */
+  public long count()
+  {
+    long n = 0;
+    for (Partition p : m_partitions)
+    {
+      n += p.size();
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of distinct keys collected so far
+   * @return The number of keys
+   */
+  public synchronized int getNumKeys()
+  {
+    return m_numKeys;
+  }
+
+  /**
+   * Groups the tuples of a partition by key. This must be called once
+   * all the tuples have been collected; the partition is emptied.
+   * @param i The index of the partition
+   * @return The groups; each element is a tuple whose key is the key
+   *   of a group, and whose value contains its tuples
+   */
+  public List<Tuple<K,Collector<K,V>>> group(int i)
+  {
+    int num_partitions = m_partitions.size();
+    int num_keys = getNumKeys();
+    Partition p = m_partitions.get(i);
+    int[] ids = p.m_ids;
+    Object[] values = p.m_values;
+    int size = p.size();
+    p.clear();
+    // Ids of the partition are i, i + n, i + 2n...: index them by id / n
+    int[] starts = new int[(num_keys + num_partitions - 1) / num_partitions + 1];
+    for (int j = 0; j < size; j++)
+    {
+      starts[ids[j] / num_partitions + 1]++;
+    }
+    for (int j = 1; j < starts.length; j++)
+    {
+      starts[j] += starts[j - 1];
+    }
+    Object[] sorted = new Object[size];
+    int[] next = Arrays.copyOf(starts, starts.length - 1);
+    for (int j = 0; j < size; j++)
+    {
+      sorted[next[ids[j] / num_partitions]++] = values[j];
+    }
+    List<Tuple<K,Collector<K,V>>> groups = new ArrayList<Tuple<K,Collector<K,V>>>();
+    for (int j = 0; j + 1 < starts.length; j++)
+    {
+      if (starts[j] == starts[j + 1])
+        continue;
+      K key = decode(j * num_partitions + i);
+      Collector<K,V> group = new Collector<K,V>(new Group(key, sorted, starts[j], starts[j + 1]));
+      groups.add(new Tuple<K,Collector<K,V>>(key, group));
+    }
+    return groups;
+  }
+
+  @Override
+  public void rewind()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Returns the id of a key, and gives it one if it has none yet
+   * @param key The key
+   * @return The id
+   */
+  private int encode(K key)
+  {
+    if (key == null)
+      return encodeNull();
+    Integer id = m_ids.get(key);
+    if (id != null)
+      return id;
+    synchronized (this)
+    {
+      id = m_ids.get(key);
+      if (id == null)
+      {
+        if (m_numKeys == m_keys.length)
+          m_keys = Arrays.copyOf(m_keys, 2 * m_keys.length);
+        m_keys[m_numKeys] = key;
+        id = m_numKeys++;
+        m_ids.put(key, id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of the null key, and gives it one if it has none yet
+   * @return The id
+   */
+  private int encodeNull()
+  {
+    int id = m_nullId;
+    if (id >= 0)
+      return id;
+    synchronized (this)
+    {
+      if (m_nullId < 0)
+      {
+        if (m_numKeys == m_keys.length)
+          m_keys = Arrays.copyOf(m_keys, 2 * m_keys.length);
+        m_keys[m_numKeys] = null;
+        m_nullId = m_numKeys++;
+      }
+      return m_nullId;
+    }
+  }
+
+  /**
+   * Returns the key of an id
+   * @param id The id
+   * @return The key
+   */
+  @SuppressWarnings("unchecked")
+  private synchronized K decode(int id)
+  {
+    return (K) m_keys[id];
+  }
+
+  /**
+   * The ids and the values of the tuples of a partition
+   */
+  private static class Partition
+  {
+    int[] m_ids = new int[256];
+    Object[] m_values = new Object[256];
+    private int m_size = 0;
+
+    synchronized int size()
+    {
+      return m_size;
+    }
+
+    synchronized void add(int id, Object value)
+    {
+      ensureCapacity(m_size + 1);
+      m_ids[m_size] = id;
+      m_values[m_size] = value;
+      m_size++;
+    }
+
+    /**
+     * Adds the tuples of a batch that belong to this partition
+     * @param ids The ids of the batch
+     * @param values The values of the batch
+     * @param n The number of tuples in the batch
+     * @param partition The index of this partition
+     * @param num_partitions The number of partitions
+     * @param count The number of tuples of the batch in this partition
+     */
+    synchronized void addAll(int[] ids, Object[] values, int n, int partition, int num_partitions, int count)
+    {
+      ensureCapacity(m_size + count);
+      for (int j = 0; j < n; j++)
+      {
+        if (ids[j] % num_partitions == partition)
+        {
+          m_ids[m_size] = ids[j];
+          m_values[m_size] = values[j];
+          m_size++;
+        }
+      }
+    }
+
+    synchronized void clear()
+    {
+      m_ids = new int[0];
+      m_values = new Object[0];
+      m_size = 0;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+      if (capacity <= m_ids.length)
+        return;
+      int new_capacity = Math.max(capacity, 2 * m_ids.length);
+      m_ids = Arrays.copyOf(m_ids, new_capacity);
+      m_values = Arrays.copyOf(m_values, new_capacity);
+    }
+  }
+
+  /**
+   * The tuples of a group, made on demand from a range of the sorted
+   * values and the key of the group
+   */
+  private class Group extends AbstractList<Tuple<K,V>>
+  {
+    private final K m_key;
+    private final Object[] m_sorted;
+    private final int m_start;
+    private final int m_end;
+
+    Group(K key, Object[] sorted, int start, int end)
+    {
+      m_key = key;
+      m_sorted = sorted;
+      m_start = start;
+      m_end = end;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Tuple<K,V> get(int index)
+    {
+      return new Tuple<K,V>(m_key, (V) m_sorted[m_start + index]);
+    }
+
+    @Override
+    public int size()
+    {
+      return m_end - m_start;
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reduce phase scheduled on a {@link ForkJoinPool}. The groups are
+ * first all gathered, then submitted to the pool one task each, from
+ * the largest to the smallest. The pool hands out the tasks submitted
+ * from the same thread in that order, so that every worker that gets
+ * free takes the largest group still waiting: a huge group starts at
+ * the beginning of the phase instead of being the last one to run,
+ * and the small ones fill the gaps at the end.
+ * <p>
+ * If the reducer is a {@link DecomposableReducer}, a group larger
+ * than the split size is itself cut into parts, which are submitted
+ * like the groups, according to their size. The worker that combines
+ * the last part of a group runs the reducer on the partial results.
+ * With this, the duration of the phase gets close to the total work
+ * divided by the number of workers, even when a few keys have most
+ * of the tuples.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class ForkJoinReduce<K,V>
+{
+  /**
+   * The smallest number of tuples in a part of a divided group
+   */
+  private static final int MIN_SPLIT_SIZE = 1024;
+
+  private final Reducer<K,V> m_reducer;
+  private final int m_parallelism;
+  private final Histogram m_taskNanos;
+  private final List<Tuple<K,Collector<K,V>>> m_groups = new ArrayList<Tuple<K,Collector<K,V>>>();
+  private long m_totalTuples = 0;
+
+  /**
+   * Create an instance of ForkJoinReduce
+   * @param r The reducer
+   * @param parallelism The number of workers of the pool
+   * @param task_nanos The histogram of the durations of the
+   *   reductions, or null
+   */
+  ForkJoinReduce(Reducer<K,V> r, int parallelism, Histogram task_nanos)
+  {
+    m_reducer = r;
+    m_parallelism = Math.max(1, parallelism);
+    m_taskNanos = task_nanos;
+  }
+
+  /**
+   * Adds a group to reduce
+   * @param key The key of the group
+   * @param group The tuples of the group
+   */
+  public void add(K key, Collector<K,V> group)
+  {
+    m_groups.add(new Tuple<K,Collector<K,V>>(key, group));
+    m_totalTuples += group.count();
+  }
+
+  /**
+   * Reduces all the groups added so far, and waits for the reductions
+   * to finish
+   * @param out The collector of the final results
+   * @throws MapReduceException If a reducer has thrown an exception
+   */
+  public void run(OutCollector<K,V> out)
+  {
+    int split_size = 0;
+    if (m_reducer instanceof DecomposableReducer<?,?>)
+      split_size = (int) Math.max(MIN_SPLIT_SIZE, m_totalTuples / (4L * m_parallelism));
+    List<UnitTask> units = new ArrayList<UnitTask>(m_groups.size());
+    for (Tuple<K,Collector<K,V>> group : m_groups)
+    {
+      if (split_size > 0 && group.getValue().count() > split_size)
+        addParts(units, group.getKey(), group.getValue(), split_size, out);
+      else
+        units.add(new GroupTask(group.getKey(), group.getValue(), out));
+    }
+    Collections.sort(units, new Comparator<UnitTask>()
+    {
+      @Override
+      public int compare(UnitTask u1, UnitTask u2)
+      {
+        return Integer.compare(u2.m_size, u1.m_size);
+      }
+    });
+    ForkJoinPool pool = new ForkJoinPool(m_parallelism);
+    try
+    {
+      List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(units.size());
+      for (UnitTask unit : units)
+      {
+        tasks.add(pool.submit(unit));
+      }
+      for (ForkJoinTask<Void> task : tasks)
+      {
+        task.join();
+      }
+    }
+    catch (MapReduceException e)
+    {
+      throw e;
+    }
+    catch (RuntimeException e)
+    {
+      throw new MapReduceException("A task has failed: " + e, e);
+    }
+    finally
+    {
+      // Drops the tasks not started yet if one has failed
+      pool.shutdownNow();
+      m_groups.clear();
+      m_totalTuples = 0;
+    }
+  }
+
+  /**
+   * Cuts an oversized group into parts, and creates a task to combine
+   * each of them
+   * @param units The list to which the tasks are added
+   * @param key The key of the group
+   * @param group The tuples of the group
+   * @param split_size The largest number of tuples in a part
+   * @param out The collector of the final results
+   */
+  private void addParts(List<UnitTask> units, K key, Collector<K,V> group, int split_size,
+      OutCollector<K,V> out)
+  {
+    int num_parts = (group.count() + split_size - 1) / split_size;
+    List<InCollector<K,V>> parts = group.getSplits(num_parts);
+    SplitGroup split = new SplitGroup(key, parts.size(), out);
+    for (int i = 0; i < parts.size(); i++)
+    {
+      units.add(new PartTask(split, i, parts.get(i)));
+    }
+  }
+
+  /**
+   * A task of the phase, with the number of tuples it processes
+   */
+  private abstract class UnitTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    protected final int m_size;
+
+    UnitTask(int size)
+    {
+      m_size = size;
+    }
+  }
+
+  /**
+   * Reduces a whole group
+   */
+  private class GroupTask extends UnitTask
+  {
+    private static final long serialVersionUID = 1L;
+    private final K m_key;
+    private final Collector<K,V> m_group;
+    private final OutCollector<K,V> m_out;
+
+    GroupTask(K key, Collector<K,V> group, OutCollector<K,V> out)
+    {
+      super(group.count());
+      m_key = key;
+      m_group = group;
+      m_out = out;
+    }
+
+    @Override
+    protected void compute()
+    {
+      reduce(m_reducer, m_key, m_group, m_out);
+    }
+  }
+
+  /**
+   * The partial results of an oversized group, filled by the tasks
+   * that combine its parts
+   */
+  private class SplitGroup
+  {
+    private final K m_key;
+    private final List<TaskBuffer<K,V>> m_partials;
+    private final AtomicInteger m_remaining;
+    private final OutCollector<K,V> m_out;
+
+    SplitGroup(K key, int num_parts, OutCollector<K,V> out)
+    {
+      m_key = key;
+      m_partials = new ArrayList<TaskBuffer<K,V>>(num_parts);
+      for (int i = 0; i < num_parts; i++)
+      {
+        m_partials.add(new TaskBuffer<K,V>());
+      }
+      m_remaining = new AtomicInteger(num_parts);
+      m_out = out;
+    }
+
+    /**
+     * Signals that a part has been combined. The caller of the last
+     * part reduces the partial results.
+     */
+    void partDone()
+    {
+      if (m_remaining.decrementAndGet() > 0)
+        return;
+      Collector<K,V> combined = new Collector<K,V>();
+      for (TaskBuffer<K,V> partial : m_partials)
+      {
+        partial.flushTo(combined);
+      }
+      reduce(m_reducer, m_key, combined, m_out);
+    }
+  }
+
+  /**
+   * Combines a part of an oversized group
+   */
+  private class PartTask extends UnitTask
+  {
+    private static final long serialVersionUID = 1L;
+    private final SplitGroup m_split;
+    private final int m_index;
+    private final InCollector<K,V> m_part;
+
+    PartTask(SplitGroup split, int index, InCollector<K,V> part)
+    {
+      super(part.count());
+      m_split = split;
+      m_index = index;
+      m_part = part;
+    }
+
+    @Override
+    protected void compute()
+    {
+      DecomposableReducer<K,V> reducer = (DecomposableReducer<K,V>) m_reducer;
+      long start = System.nanoTime();
+      reducer.combine(m_split.m_partials.get(m_index), m_split.m_key, m_part);
+      if (m_taskNanos != null)
+        m_taskNanos.record(System.nanoTime() - start);
+      m_split.partDone();
+    }
+  }
+
+  /**
+   * Runs the reducer on a group
+   * @param r The reducer
+   * @param key The key of the group
+   * @param in The tuples of the group
+   * @param out The collector of the final results
+   */
+  private void reduce(Reducer<K,V> r, K key, Collector<K,V> in, OutCollector<K,V> out)
+  {
+    long start = System.nanoTime();
+    TaskBuffer<K,V> buffer = new TaskBuffer<K,V>();
+    r.reduce(buffer, key, in);
+    buffer.flushTo(out);
+    if (m_taskNanos != null)
+      m_taskNanos.record(System.nanoTime() - start);
+  }
+}
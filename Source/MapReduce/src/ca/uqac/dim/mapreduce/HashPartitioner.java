@@ -0,0 +1,42 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Default {@link Partitioner}, which sends a tuple to a partition
+ * according to the hash code of its key. A <code>null</code> key goes
+ * to partition 0, like in a <code>HashMap</code>.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class HashPartitioner<K> implements Partitioner<K>
+{
+  @Override
+  public int getPartition(K key, int num_partitions)
+  {
+    if (key == null)
+    {
+      return 0;
+    }
+    int h = key.hashCode();
+    // Spread the high bits, as many hash codes differ only there
+    h ^= (h >>> 16);
+    return (h & Integer.MAX_VALUE) % num_partitions;
+  }
+}
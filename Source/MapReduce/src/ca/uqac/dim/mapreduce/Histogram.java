@@ -0,0 +1,162 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of a set of non-negative values, such as task durations
+ * or group sizes. The values are not kept: each one is counted in a
+ * bucket covering a power of two, so that the histogram takes the same
+ * small amount of memory whatever the number of values, and can be
+ * updated by several threads at once without locking. Percentiles are
+ * therefore approximate: they are accurate within a factor of two.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class Histogram
+{
+  /**
+   * The number of buckets. Bucket <i>i</i> &gt; 0 counts the values in
+   * [2<sup><i>i</i>-1</sup>, 2<sup><i>i</i></sup>[; bucket 0 counts
+   * the zeros.
+   */
+  private static final int NUM_BUCKETS = 64;
+
+  private final AtomicLongArray m_buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong m_count = new AtomicLong();
+  private final AtomicLong m_sum = new AtomicLong();
+  private final AtomicLong m_min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong m_max = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Adds a value to the histogram
+   * @param value The value. Negative values are counted as 0.
+   */
+  public void record(long value)
+  {
+    value = Math.max(0, value);
+    m_buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+    m_count.incrementAndGet();
+    m_sum.addAndGet(value);
+    long m;
+    while (value < (m = m_min.get()) && !m_min.compareAndSet(m, value))
+    {
+      // Retry
+    }
+    while (value > (m = m_max.get()) && !m_max.compareAndSet(m, value))
+    {
+      // Retry
+    }
+  }
+
+  /**
+   * Returns the number of values recorded
+   * @return The number of values
+   */
+  public long getCount()
+  {
+    return m_count.get();
+  }
+
+  /**
+   * Returns the sum of the values recorded
+   * @return The sum
+   */
+  public long getSum()
+  {
+    return m_sum.get();
+  }
+
+  /**
+   * Returns the smallest value recorded
+   * @return The value, or 0 if the histogram is empty
+   */
+  public long getMin()
+  {
+    return getCount() == 0 ? 0 : m_min.get();
+  }
+
+  /**
+   * Returns the largest value recorded
+   * @return The value, or 0 if the histogram is empty
+   */
+  public long getMax()
+  {
+    return getCount() == 0 ? 0 : m_max.get();
+  }
+
+  /**
+   * Returns the mean of the values recorded
+   * @return The mean, or 0 if the histogram is empty
+   */
+  public double getMean()
+  {
+    long count = getCount();
+    return count == 0 ? 0 : (double) getSum() / count;
+  }
+
+  /**
+   * Returns an approximation of a percentile of the values: the upper
+   * bound of the bucket that contains it
+   * @param p The percentile, between 0 and 100
+   * @return A value that at least <tt>p</tt> percent of the recorded
+   *   values do not exceed, or 0 if the histogram is empty
+   */
+  public long getPercentile(double p)
+  {
+    long count = getCount();
+    if (count == 0)
+      return 0;
+    long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, p)) / 100);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      seen += m_buckets.get(i);
+      if (seen >= Math.max(1, rank))
+        return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+    }
+    return getMax();
+  }
+
+  /**
+   * Returns the number of values in each bucket. Element <i>i</i> &gt; 0
+   * of the array is the number of values in
+   * [2<sup><i>i</i>-1</sup>, 2<sup><i>i</i></sup>[, and element 0 is
+   * the number of zeros.
+   * @return The counts
+   */
+  public long[] getBuckets()
+  {
+    long[] counts = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      counts[i] = m_buckets.get(i);
+    }
+    return counts;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "count=" + getCount() + " min=" + getMin() + " mean=" + Math.round(getMean())
+        + " p50=" + getPercentile(50) + " p99=" + getPercentile(99) + " max=" + getMax();
+  }
+}
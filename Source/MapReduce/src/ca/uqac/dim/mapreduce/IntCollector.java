@@ -0,0 +1,166 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.Arrays;
+
+/**
+ * Collector of {@link IntTuple}s, used both as the input and output of
+ * the map and reduce phases of an {@link IntWorkflow}. This is the
+ * counterpart of {@link Collector} for numeric jobs.
+ * <p>
+ * Each tuple is stored as a single <tt>long</tt> in an array, its key
+ * in the upper 32 bits and its value in the lower 32 bits, with its
+ * sign bit flipped so that negative values come before the positive
+ * ones. Hence the tuples take no more memory than their contents, and
+ * sorting the array with {@link Arrays#sort(long[])} groups the tuples
+ * by key, in the order of their values, without creating a single
+ * object. The splits of a collector are views over its array, copied
+ * only if they are written to (see {@link PrimitiveCollector}).
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class IntCollector extends PrimitiveCollector<IntCollector> implements IntInCollector, IntOutCollector
+{
+  private long[] m_tuples = null;
+
+  /**
+   * The tuple returned by {@link #next()}, overwritten at each call
+   */
+  private IntTuple m_current = new IntTuple();
+
+  /**
+   * Create an empty IntCollector
+   */
+  public IntCollector()
+  {
+    super(0, 0, false);
+    m_tuples = new long[16];
+  }
+
+  /**
+   * Create an IntCollector that is a view over a range of the array of
+   * another collector
+   * @param tuples The array
+   * @param from The index of the first tuple
+   * @param to The index following the last tuple
+   */
+  private IntCollector(long[] tuples, int from, int to)
+  {
+    super(from, to, true);
+    m_tuples = tuples;
+  }
+
+  @Override
+  public synchronized void collect(int key, int value)
+  {
+    prepareWrite(1);
+    m_tuples[m_to++] = pack(key, value);
+  }
+
+  /**
+   * Add the tuples of another collector to this one
+   * @param c The collector
+   */
+  @Override
+  public void addAll(IntCollector c)
+  {
+    int n = c.m_to - c.m_from;
+    synchronized (this)
+    {
+      prepareWrite(n);
+      System.arraycopy(c.m_tuples, c.m_from, m_tuples, m_to, n);
+      m_to += n;
+    }
+  }
+
+  @Override
+  public IntTuple next()
+  {
+    long p = m_tuples[nextIndex()];
+    m_current.set(key(p), value(p));
+    return m_current;
+  }
+
+  /**
+   * Sorts the tuples by key (and by value for the same key), so that
+   * the tuples with the same key are contiguous
+   */
+  @Override
+  /*package*/ void sort()
+  {
+    prepareWrite(0);
+    Arrays.sort(m_tuples, m_from, m_to);
+  }
+
+  /**
+   * Returns the key of the tuple at some index
+   * @param i The index
+   * @return The key
+   */
+  /*package*/ int keyAt(int i)
+  {
+    return key(m_tuples[i]);
+  }
+
+  @Override
+  protected int capacity()
+  {
+    return m_tuples.length;
+  }
+
+  @Override
+  protected void reallocate(int capacity)
+  {
+    m_tuples = Arrays.copyOfRange(m_tuples, m_from, m_from + capacity);
+  }
+
+  @Override
+  protected IntCollector view(int from, int to)
+  {
+    return new IntCollector(m_tuples, from, to);
+  }
+
+  @Override
+  protected boolean sameKey(int i, int j)
+  {
+    return key(m_tuples[i]) == key(m_tuples[j]);
+  }
+
+  @Override
+  protected void appendTuple(StringBuilder out, int i)
+  {
+    out.append(key(m_tuples[i])).append(",").append(value(m_tuples[i]));
+  }
+
+  private static long pack(int key, int value)
+  {
+    return ((long) key << 32) | ((value ^ 0x80000000) & 0xFFFFFFFFL);
+  }
+
+  private static int key(long p)
+  {
+    return (int) (p >> 32);
+  }
+
+  private static int value(long p)
+  {
+    return (int) p ^ 0x80000000;
+  }
+}
@@ -0,0 +1,37 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Data source used as the output of the map and reduce phases of an
+ * {@link IntWorkflow}. This is the counterpart of {@link OutCollector}
+ * for numeric jobs.
+ *
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface IntOutCollector
+{
+	/**
+	 * Add a new tuple to the collector
+	 * @param key The key of the tuple
+	 * @param value The value of the tuple
+	 */
+	public void collect(int key, int value);
+}
@@ -0,0 +1,101 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Key-value pair whose key and value are both primitive <tt>int</tt>s.
+ * This is the counterpart of {@link Tuple} for numeric jobs: no
+ * {@link Integer} object is ever created to hold the key or the value.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class IntTuple
+{
+	private int m_key = 0;
+	private int m_value = 0;
+	
+	/**
+	 * Create a tuple (0,0)
+	 */
+	public IntTuple()
+	{
+		super();
+	}
+	
+	/**
+	 * Create a tuple with given key and value
+	 * @param key The key
+	 * @param value The value
+	 */
+	public IntTuple(int key, int value)
+	{
+		this();
+		set(key, value);
+	}
+	
+	/**
+	 * Set both the key and the value of the tuple
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void set(int key, int value)
+	{
+		m_key = key;
+		m_value = value;
+	}
+	
+	/**
+	 * Get the tuple's key
+	 * @return The tuple's key
+	 */
+	public int getKey()
+	{
+		return m_key;
+	}
+	
+	/**
+	 * Get the tuple's value
+	 * @return The tuple's value
+	 */
+	public int getValue()
+	{
+		return m_value;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof IntTuple))
+			return false;
+		IntTuple t = (IntTuple) o;
+		return m_key == t.m_key && m_value == t.m_value;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return m_key + m_value;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "\u2329" + m_key + "," + m_value + "\u232A";
+	}
+}
@@ -0,0 +1,125 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Coordinates the execution of a map-reduce job on tuples of primitive
+ * <tt>int</tt>s. The processing is the same as for the
+ * {@link SequentialWorkflow}, but keys and values are never boxed into
+ * {@link Integer} objects: the tuples are stored in arrays of primitives
+ * (see {@link IntCollector}), and the shuffle groups them by sorting
+ * these arrays.
+ * <p>
+ * By default, the job runs in the calling thread. When a
+ * {@link ResourceManager} is given, the source (if it is an
+ * {@link IntCollector}) is divided into splits mapped in parallel, and
+ * the groups of tuples are reduced in parallel as well.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class IntWorkflow extends PrimitiveWorkflow<IntCollector>
+{
+  private IntMapper m_mapper = null;
+  private IntReducer m_reducer = null;
+  private IntInCollector m_source = null;
+
+  /**
+   * Create an instance of IntWorkflow.
+   * @param m The {@link IntMapper} to use in the map phase
+   * @param r The {@link IntReducer} to use in the reduce phase
+   * @param c The {@link IntInCollector} to use as the input source of tuples
+   */
+  public IntWorkflow(IntMapper m, IntReducer r, IntInCollector c)
+  {
+    super();
+    setMapper(m);
+    setReducer(r);
+    setSource(c);
+  }
+
+  public void setMapper(IntMapper m)
+  {
+    m_mapper = m;
+  }
+
+  public void setReducer(IntReducer r)
+  {
+    m_reducer = r;
+  }
+
+  public void setSource(IntInCollector c)
+  {
+    m_source = c;
+  }
+
+  /**
+   * Start a map-reduce job and output the results as a single
+   * collector containing all output tuples.
+   * @return An IntInCollector containing all output tuples
+   */
+  public IntInCollector run()
+  {
+    return runJob();
+  }
+
+  @Override
+  protected boolean isReady()
+  {
+    return m_mapper != null && m_reducer != null && m_source != null;
+  }
+
+  @Override
+  protected IntCollector newCollector()
+  {
+    return new IntCollector();
+  }
+
+  @Override
+  protected IntCollector splittableSource()
+  {
+    if (m_source instanceof IntCollector)
+      return (IntCollector) m_source;
+    return null;
+  }
+
+  @Override
+  protected void mapSource(IntCollector out)
+  {
+    m_source.rewind();
+    while (m_source.hasNext())
+    {
+      m_mapper.map(out, m_source.next());
+    }
+  }
+
+  @Override
+  protected void mapSplit(IntCollector split, IntCollector out)
+  {
+    while (split.hasNext())
+    {
+      m_mapper.map(out, split.next());
+    }
+  }
+
+  @Override
+  protected void reduce(IntCollector group, IntCollector out)
+  {
+    m_reducer.reduce(out, group.keyAt(group.start()), group);
+  }
+}
@@ -0,0 +1,346 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coordinates the execution of a map-reduce job repeated until a fixed
+ * point is reached, such as PageRank or shortest paths. The output of
+ * each iteration is the input of the next one; the iterations stop when
+ * a {@link Convergence} condition holds, when an iteration changes
+ * nothing, or after a maximum number of iterations.
+ * <p>
+ * The output of an iteration is kept as a <em>state</em>: for each key,
+ * the tuples output by the last reduction of that key. A key whose
+ * reduction outputs nothing leaves the state. The group of
+ * tuples given to the reducer for a key starts with the static tuples
+ * of that key (see below), followed by its current state, and then by
+ * the tuples output by the mapper; the mapper therefore does not need
+ * to send a key's state back to itself. Two features avoid processing
+ * the whole data at each iteration:
+ * <ul>
+ * <li><b>Static data.</b> Tuples that do not change from an iteration
+ *   to the next (for example, the edges of a graph) can be given
+ *   separately with {@link #setStaticData(InCollector)}. They are grouped
+ *   by key once, and added to the group of their key at every
+ *   reduction, without going through the mapper again.</li>
+ * <li><b>Delta mode.</b> With {@link #setDeltaMode(boolean)}, an
+ *   iteration maps only the tuples of the state that the previous
+ *   iteration has changed, and reduces only the keys that receive
+ *   tuples; the other keys keep their state. This is only correct
+ *   for jobs where a key's new state can be computed from the tuples
+ *   sent by the keys that changed (together with its static data),
+ *   such as shortest paths or connected components.</li>
+ * </ul>
+ * The iterations run in the calling thread, in the same way as in a
+ * {@link SequentialWorkflow}.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class IterativeWorkflow<K,V> implements Workflow<K,V>
+{
+  private Mapper<K,V> m_mapper = null;
+  private Reducer<K,V> m_reducer = null;
+  private InCollector<K,V> m_source = null;
+  private Convergence<K,V> m_convergence = null;
+  private InCollector<K,V> m_staticData = null;
+  private boolean m_deltaMode = false;
+  private int m_maxIterations = 100;
+
+  /**
+   * The number of iterations done by the last run
+   */
+  private int m_numIterations = 0;
+
+  /**
+   * The measurements of the last iteration
+   */
+  private WorkflowMetrics m_metrics = new WorkflowMetrics();
+
+  /**
+   * Create an instance of IterativeWorkflow.
+   * @param m The {@link Mapper} to use in the map phase
+   * @param r The {@link Reducer} to use in the reduce phase
+   * @param c The {@link InCollector} to use as the input of the
+   *   first iteration
+   */
+  public IterativeWorkflow(Mapper<K,V> m, Reducer<K,V> r, InCollector<K,V> c)
+  {
+    super();
+    setMapper(m);
+    setReducer(r);
+    setSource(c);
+  }
+
+  public void setMapper(Mapper<K,V> m)
+  {
+    m_mapper = m;
+  }
+
+  public void setReducer(Reducer<K,V> r)
+  {
+    m_reducer = r;
+  }
+
+  public void setSource(InCollector<K,V> c)
+  {
+    m_source = c;
+  }
+
+  /**
+   * Sets the condition that stops the iterations. By default, the
+   * iterations stop only when one of them changes nothing, or when the
+   * maximum number of iterations is reached.
+   * @param c The condition, or null
+   */
+  public void setConvergence(Convergence<K,V> c)
+  {
+    m_convergence = c;
+  }
+
+  /**
+   * Sets the tuples that are the same at every iteration. They are not
+   * mapped: each one is added, at every iteration, to the group of
+   * tuples of its key given to the reducer, before the tuples output
+   * by the mapper.
+   * @param c The static tuples, or null for none
+   */
+  public void setStaticData(InCollector<K,V> c)
+  {
+    m_staticData = c;
+  }
+
+  /**
+   * Sets whether each iteration only processes the tuples changed by
+   * the previous one. By default, every iteration maps the whole state.
+   * @param b true to process only the changes
+   */
+  public void setDeltaMode(boolean b)
+  {
+    m_deltaMode = b;
+  }
+
+  /**
+   * Sets the maximum number of iterations
+   * @param n The number of iterations (100 by default)
+   */
+  public void setMaxIterations(int n)
+  {
+    m_maxIterations = Math.max(1, n);
+  }
+
+  /**
+   * Runs the iterations.
+   * @return An InCollector containing the final state
+   */
+  public InCollector<K,V> run()
+  {
+    if (m_mapper == null || m_reducer == null || m_source == null)
+      return null;
+    Map<K,Collector<K,V>> static_groups = new LinkedHashMap<K,Collector<K,V>>();
+    if (m_staticData != null)
+    {
+      Collector<K,V> c = new Collector<K,V>();
+      m_staticData.rewind();
+      while (m_staticData.hasNext())
+      {
+        c.toList().add(m_staticData.next());
+      }
+      static_groups = c.subCollectors();
+    }
+    Map<K,List<Tuple<K,V>>> state = new LinkedHashMap<K,List<Tuple<K,V>>>();
+    InCollector<K,V> input = m_source;
+    m_numIterations = 0;
+    while (m_numIterations < m_maxIterations)
+    {
+      Set<K> reduced = new HashSet<K>();
+      Collector<K,V> output = iterate(input, static_groups, state, reduced);
+      m_numIterations++;
+      Collector<K,V> changes = new Collector<K,V>();
+      if (update(state, reduced, output, changes) == 0)
+        break;
+      // In delta mode, the whole state is built only if the convergence
+      // condition needs it
+      Collector<K,V> all = null;
+      if (!m_deltaMode || m_convergence != null)
+        all = toCollector(state);
+      if (m_convergence != null && m_convergence.hasConverged(m_numIterations, all, changes))
+        break;
+      changes.rewind();
+      input = m_deltaMode ? changes : all;
+    }
+    return toCollector(state);
+  }
+
+  /**
+   * Runs one iteration
+   * @param input The tuples to map
+   * @param static_groups The static tuples, grouped by key
+   * @param state The state of each key
+   * @param reduced A set to which this method adds the keys it reduces
+   * @return The output of the reducers
+   */
+  private Collector<K,V> iterate(InCollector<K,V> input, Map<K,Collector<K,V>> static_groups,
+      Map<K,List<Tuple<K,V>>> state, Set<K> reduced)
+  {
+    m_metrics = new WorkflowMetrics();
+    long start = System.nanoTime();
+    Collector<K,V> temp_coll = new Collector<K,V>();
+    long num_tuples = 0;
+    input.rewind();
+    while (input.hasNext())
+    {
+      m_mapper.map(temp_coll, input.next());
+      num_tuples++;
+    }
+    long end_of_map = System.nanoTime();
+    m_metrics.addMapInputTuples(num_tuples);
+    m_metrics.setMapOutputTuples(temp_coll.count());
+    m_metrics.setPeakIntermediateTuples(temp_coll.count());
+    Map<K,Collector<K,V>> groups = temp_coll.subCollectors();
+    if (!m_deltaMode || m_numIterations == 0)
+    {
+      // Keys that receive no tuple from the mapper are reduced too
+      addKeys(groups, static_groups.keySet());
+      addKeys(groups, state.keySet());
+    }
+    long end_of_shuffle = System.nanoTime();
+    m_metrics.setShuffleNanos(end_of_shuffle - end_of_map);
+    Collector<K,V> out = new Collector<K,V>();
+    reduced.addAll(groups.keySet());
+    for (Map.Entry<K,Collector<K,V>> entry : groups.entrySet())
+    {
+      Collector<K,V> group = entry.getValue();
+      Collector<K,V> fixed = static_groups.get(entry.getKey());
+      List<Tuple<K,V>> current = state.get(entry.getKey());
+      if (fixed != null || current != null)
+      {
+        List<Tuple<K,V>> tuples = new ArrayList<Tuple<K,V>>();
+        if (fixed != null)
+          tuples.addAll(fixed.toList());
+        if (current != null)
+          tuples.addAll(current);
+        tuples.addAll(group.toList());
+        group = new Collector<K,V>(tuples);
+      }
+      m_metrics.addGroup(group.count());
+      long t = System.nanoTime();
+      m_reducer.reduce(out, entry.getKey(), group);
+      m_metrics.getReduceTaskNanos().record(System.nanoTime() - t);
+    }
+    long end = System.nanoTime();
+    m_metrics.setMapNanos(end_of_map - start);
+    m_metrics.setReduceNanos(end - end_of_map);
+    m_metrics.setTotalNanos(end - start);
+    m_metrics.setReduceOutputTuples(out.count());
+    return out;
+  }
+
+  /**
+   * Adds an empty group for the keys that have none
+   * @param groups The groups
+   * @param keys The keys
+   */
+  private void addKeys(Map<K,Collector<K,V>> groups, Set<K> keys)
+  {
+    for (K key : keys)
+    {
+      if (!groups.containsKey(key))
+        groups.put(key, new Collector<K,V>());
+    }
+  }
+
+  /**
+   * Replaces the state of each key reduced or output by an iteration.
+   * A reduced key with no output is removed from the state.
+   * @param state The state, updated by this method
+   * @param reduced The keys reduced by the iteration
+   * @param output The output of the iteration
+   * @param changes A collector to which this method adds the tuples of
+   *   the output that were not in the state
+   * @return The number of changes, that is, the number of tuples added
+   *   to <code>changes</code> plus the number of keys removed from the
+   *   state
+   */
+  private long update(Map<K,List<Tuple<K,V>>> state, Set<K> reduced,
+      Collector<K,V> output, Collector<K,V> changes)
+  {
+    long num_removed = 0;
+    Map<K,Collector<K,V>> by_key = output.subCollectors();
+    for (K key : reduced)
+    {
+      if (!by_key.containsKey(key) && state.remove(key) != null)
+        num_removed++;
+    }
+    for (Map.Entry<K,Collector<K,V>> entry : by_key.entrySet())
+    {
+      List<Tuple<K,V>> tuples = entry.getValue().toList();
+      List<Tuple<K,V>> previous = state.put(entry.getKey(), tuples);
+      Set<Tuple<K,V>> unchanged = new HashSet<Tuple<K,V>>();
+      if (previous != null)
+        unchanged.addAll(previous);
+      for (Tuple<K,V> t : tuples)
+      {
+        if (!unchanged.contains(t))
+          changes.toList().add(t);
+      }
+    }
+    return changes.count() + num_removed;
+  }
+
+  /**
+   * Puts all the tuples of the state in a collector
+   * @param state The state
+   * @return The collector
+   */
+  private Collector<K,V> toCollector(Map<K,List<Tuple<K,V>>> state)
+  {
+    Collector<K,V> c = new Collector<K,V>();
+    for (List<Tuple<K,V>> tuples : state.values())
+    {
+      c.toList().addAll(tuples);
+    }
+    return c;
+  }
+
+  /**
+   * Returns the number of iterations done by the last run
+   * @return The number of iterations
+   */
+  public int getNumIterations()
+  {
+    return m_numIterations;
+  }
+
+  /**
+   * Returns the measurements taken during the last iteration of the
+   * last run
+   * @return The metrics, empty if the job hasn't executed yet
+   */
+  public WorkflowMetrics getMetrics()
+  {
+    return m_metrics;
+  }
+}
@@ -0,0 +1,361 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Input collector reading a text file line by line. Each line of the
+ * file becomes a tuple (<i>l</i>, ""), where <i>l</i> is the contents of
+ * the line. Contrary to a {@link Collector} filled in advance, the file
+ * is read only as the tuples are enumerated: a single line is in memory
+ * at any time, whatever the size of the file.
+ * <p>
+ * {@link #rewind()} closes the file; it is reopened at the next call to
+ * {@link #hasNext()}. Since the number of lines is not known in
+ * advance, {@link #count()} reads the whole file once (also line by
+ * line) and remembers the result.
+ * <p>
+ * The file can be divided into splits covering ranges of bytes. A line
+ * belongs to the split where its first byte is, so that no line is ever
+ * cut in two or read twice. Lines are found by looking for the byte
+ * <tt>'\n'</tt>: the character set of the file must encode it as a
+ * single byte that does not appear in other characters (this is the case
+ * of ASCII, UTF-8 and the ISO-8859 character sets, but not of UTF-16).
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class LineCollector implements SplittableCollector<String,String>
+{
+  /**
+   * The size of the read buffer, in bytes
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The minimum size of a split, in bytes. Smaller splits cost more to
+   * start than they save.
+   */
+  private static final long MIN_SPLIT_SIZE = 64 * 1024;
+
+  private File m_file = null;
+  private Charset m_charset = null;
+
+  /**
+   * The position of the first byte of the range of the file read by
+   * this collector
+   */
+  private long m_start = 0;
+
+  /**
+   * The position following the last byte of the range read by this
+   * collector. Lines starting at or after this position belong to
+   * the next split.
+   */
+  private long m_end = Long.MAX_VALUE;
+
+  private InputStream m_in = null;
+  private byte[] m_buffer = null;
+  private int m_bufferPos = 0;
+  private int m_bufferLength = 0;
+
+  /**
+   * The position in the file of the next byte to read
+   */
+  private long m_position = 0;
+
+  /**
+   * Holds the bytes of a line that spans more than one read
+   */
+  private byte[] m_line = new byte[128];
+
+  private String m_nextLine = null;
+  private int m_count = -1;
+
+  /**
+   * Create a LineCollector reading a file in the platform's default
+   * character set
+   * @param filename The name of the file to read
+   */
+  public LineCollector(String filename)
+  {
+    this(new File(filename), Charset.defaultCharset());
+  }
+
+  /**
+   * Create a LineCollector
+   * @param file The file to read
+   * @param charset The character set of the file
+   */
+  public LineCollector(File file, Charset charset)
+  {
+    this(file, charset, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a LineCollector reading the lines that start in a range of
+   * bytes of a file
+   * @param file The file to read
+   * @param charset The character set of the file
+   * @param start The position of the first byte of the range
+   * @param end The position following the last byte of the range
+   */
+  public LineCollector(File file, Charset charset, long start, long end)
+  {
+    super();
+    m_file = file;
+    m_charset = charset;
+    m_start = start;
+    m_end = end;
+  }
+
+  @Override
+  public List<InCollector<String,String>> getSplits(int num_splits)
+  {
+    long start = m_start;
+    long end = Math.min(m_end, m_file.length());
+    long size = Math.max(MIN_SPLIT_SIZE, (end - start + num_splits - 1) / Math.max(1, num_splits));
+    List<InCollector<String,String>> splits = new ArrayList<InCollector<String,String>>();
+    while (start < end)
+    {
+      long split_end = Math.min(end, start + size);
+      splits.add(new LineCollector(m_file, m_charset, start, split_end));
+      start = split_end;
+    }
+    if (splits.isEmpty())
+      splits.add(this);
+    return splits;
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    if (m_nextLine != null)
+      return true;
+    try
+    {
+      if (m_in == null)
+        open();
+      m_nextLine = readLine();
+    }
+    catch (IOException e)
+    {
+      throw new MapReduceException("Cannot read " + m_file, e);
+    }
+    if (m_nextLine == null)
+      close();
+    return m_nextLine != null;
+  }
+
+  @Override
+  public Tuple<String,String> next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    Tuple<String,String> t = new Tuple<String,String>(m_nextLine, "");
+    m_nextLine = null;
+    return t;
+  }
+
+  @Override
+  public void remove()
+  {
+    throw new UnsupportedOperationException("Cannot remove a line from a file");
+  }
+
+  /**
+   * Returns a bound on the number of lines of the collector, without
+   * reading the file: the number of lines if it is already known, and
+   * otherwise the number of bytes of the range, since no two lines
+   * start at the same byte
+   * @return The bound
+   */
+  /*package*/ long maxCount()
+  {
+    if (m_count >= 0)
+      return m_count;
+    return Math.max(0, Math.min(m_end, m_file.length()) - m_start);
+  }
+
+  @Override
+  public int count()
+  {
+    if (m_count >= 0)
+      return m_count;
+    LineCollector copy = new LineCollector(m_file, m_charset, m_start, m_end);
+    int n = 0;
+    while (copy.hasNext())
+    {
+      copy.next();
+      n++;
+    }
+    m_count = n;
+    return m_count;
+  }
+
+  @Override
+  public void rewind()
+  {
+    close();
+    m_nextLine = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    if (m_start == 0 && m_end == Long.MAX_VALUE)
+      return m_file.toString();
+    return m_file + "[" + m_start + "," + m_end + ")";
+  }
+
+  /**
+   * Opens the file and moves to the first line of the range
+   * @throws IOException If the file cannot be read
+   */
+  private void open() throws IOException
+  {
+    m_in = new FileInputStream(m_file);
+    m_buffer = new byte[BUFFER_SIZE];
+    m_bufferPos = 0;
+    m_bufferLength = 0;
+    m_position = 0;
+    if (m_start == 0)
+      return;
+    // The line containing the byte before the range belongs to the
+    // previous split: skip to the end of that line
+    skipBytes(m_start - 1);
+    int b;
+    while ((b = readByte()) >= 0 && b != '\n')
+    {
+      // Skip
+    }
+  }
+
+  /**
+   * Reads the next line of the range
+   * @return The line, without its line terminator, or null if there
+   *   is no more line in the range
+   * @throws IOException If the file cannot be read
+   */
+  private String readLine() throws IOException
+  {
+    if (m_position >= m_end)
+      return null;
+    int length = 0;
+    boolean eol = false;
+    while (!eol)
+    {
+      if (m_bufferPos >= m_bufferLength && !fill())
+      {
+        if (length == 0 && m_bufferLength < 0)
+          return null;
+        break;
+      }
+      int i = m_bufferPos;
+      while (i < m_bufferLength && m_buffer[i] != '\n')
+        i++;
+      int n = i - m_bufferPos;
+      if (length + n > m_line.length)
+        m_line = Arrays.copyOf(m_line, Math.max(m_line.length * 2, length + n));
+      System.arraycopy(m_buffer, m_bufferPos, m_line, length, n);
+      length += n;
+      m_position += n;
+      m_bufferPos = i;
+      if (i < m_bufferLength)
+      {
+        // Consume the '\n'
+        m_bufferPos++;
+        m_position++;
+        eol = true;
+      }
+    }
+    if (length > 0 && m_line[length - 1] == '\r')
+      length--;
+    return new String(m_line, 0, length, m_charset);
+  }
+
+  /**
+   * Reads a single byte
+   * @return The byte, or -1 at the end of the file
+   * @throws IOException If the file cannot be read
+   */
+  private int readByte() throws IOException
+  {
+    if (m_bufferPos >= m_bufferLength && !fill())
+      return -1;
+    m_position++;
+    return m_buffer[m_bufferPos++] & 0xFF;
+  }
+
+  /**
+   * Moves forward in the file without reading
+   * @param n The number of bytes to skip
+   * @throws IOException If the file cannot be read
+   */
+  private void skipBytes(long n) throws IOException
+  {
+    while (n > 0)
+    {
+      long skipped = m_in.skip(n);
+      if (skipped <= 0)
+        break;
+      n -= skipped;
+      m_position += skipped;
+    }
+  }
+
+  /**
+   * Fills the buffer with the next bytes of the file
+   * @return false if the end of the file has been reached
+   * @throws IOException If the file cannot be read
+   */
+  private boolean fill() throws IOException
+  {
+    m_bufferPos = 0;
+    m_bufferLength = m_in.read(m_buffer);
+    return m_bufferLength > 0;
+  }
+
+  /**
+   * Closes the file, if it is open
+   */
+  private void close()
+  {
+    if (m_in == null)
+      return;
+    try
+    {
+      m_in.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing we can do
+    }
+    m_in = null;
+    m_buffer = null;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.Arrays;
+
+/**
+ * Collector of {@link LongTuple}s, used both as the input and output of
+ * the map and reduce phases of a {@link LongWorkflow}. This is the
+ * counterpart of {@link Collector} for numeric jobs.
+ * <p>
+ * A <tt>long</tt> key and value do not fit together in a single
+ * primitive as in {@link IntCollector}; the keys and the values are
+ * rather kept in two parallel arrays, and sorted together by a
+ * quicksort that moves each value along with its key. The splits of a
+ * collector are views over its arrays, copied only if they are written
+ * to (see {@link PrimitiveCollector}).
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class LongCollector extends PrimitiveCollector<LongCollector> implements LongInCollector, LongOutCollector
+{
+  private long[] m_keys = null;
+  private long[] m_values = null;
+
+  /**
+   * The tuple returned by {@link #next()}, overwritten at each call
+   */
+  private LongTuple m_current = new LongTuple();
+
+  /**
+   * Ranges shorter than this are sorted by insertion
+   */
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  /**
+   * Create an empty LongCollector
+   */
+  public LongCollector()
+  {
+    super(0, 0, false);
+    m_keys = new long[16];
+    m_values = new long[16];
+  }
+
+  /**
+   * Create a LongCollector that is a view over a range of the arrays
+   * of another collector
+   * @param keys The array of keys
+   * @param values The array of values
+   * @param from The index of the first tuple
+   * @param to The index following the last tuple
+   */
+  private LongCollector(long[] keys, long[] values, int from, int to)
+  {
+    super(from, to, true);
+    m_keys = keys;
+    m_values = values;
+  }
+
+  @Override
+  public synchronized void collect(long key, long value)
+  {
+    prepareWrite(1);
+    m_keys[m_to] = key;
+    m_values[m_to] = value;
+    m_to++;
+  }
+
+  /**
+   * Add the tuples of another collector to this one
+   * @param c The collector
+   */
+  @Override
+  public void addAll(LongCollector c)
+  {
+    int n = c.m_to - c.m_from;
+    synchronized (this)
+    {
+      prepareWrite(n);
+      System.arraycopy(c.m_keys, c.m_from, m_keys, m_to, n);
+      System.arraycopy(c.m_values, c.m_from, m_values, m_to, n);
+      m_to += n;
+    }
+  }
+
+  @Override
+  public LongTuple next()
+  {
+    int i = nextIndex();
+    m_current.set(m_keys[i], m_values[i]);
+    return m_current;
+  }
+
+  /**
+   * Sorts the tuples by key (and by value for the same key), so that
+   * the tuples with the same key are contiguous
+   */
+  @Override
+  /*package*/ void sort()
+  {
+    prepareWrite(0);
+    sort(m_from, m_to - 1);
+  }
+
+  /**
+   * Sorts a range of the tuples, with a three-way quicksort on the
+   * pairs (key, value): the tuples equal to the pivot are set aside in
+   * the middle, which keeps the sort linear on runs of identical tuples,
+   * such as the pairs (word, 1) of a word count. A run of tuples with
+   * the same key but different values still takes
+   * <i>n</i>&nbsp;log&nbsp;<i>n</i> comparisons, since the values are
+   * sorted too.
+   * @param lo The index of the first tuple of the range
+   * @param hi The index of the last tuple of the range
+   */
+  private void sort(int lo, int hi)
+  {
+    while (hi - lo >= INSERTION_SORT_SIZE)
+    {
+      int mid = (lo + hi) >>> 1;
+      long pk = m_keys[mid], pv = m_values[mid];
+      int lt = lo, i = lo, gt = hi;
+      while (i <= gt)
+      {
+        int c = compare(m_keys[i], m_values[i], pk, pv);
+        if (c < 0)
+          swap(lt++, i++);
+        else if (c > 0)
+          swap(i, gt--);
+        else
+          i++;
+      }
+      // Recurse on the smaller side, loop on the larger one
+      if (lt - lo < hi - gt)
+      {
+        sort(lo, lt - 1);
+        lo = gt + 1;
+      }
+      else
+      {
+        sort(gt + 1, hi);
+        hi = lt - 1;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++)
+    {
+      for (int j = i; j > lo && compare(m_keys[j], m_values[j], m_keys[j - 1], m_values[j - 1]) < 0; j--)
+        swap(j, j - 1);
+    }
+  }
+
+  private static int compare(long k1, long v1, long k2, long v2)
+  {
+    if (k1 != k2)
+      return k1 < k2 ? -1 : 1;
+    if (v1 != v2)
+      return v1 < v2 ? -1 : 1;
+    return 0;
+  }
+
+  private void swap(int i, int j)
+  {
+    long k = m_keys[i];
+    m_keys[i] = m_keys[j];
+    m_keys[j] = k;
+    long v = m_values[i];
+    m_values[i] = m_values[j];
+    m_values[j] = v;
+  }
+
+  /**
+   * Returns the key of the tuple at some index
+   * @param i The index
+   * @return The key
+   */
+  /*package*/ long keyAt(int i)
+  {
+    return m_keys[i];
+  }
+
+  @Override
+  protected int capacity()
+  {
+    return m_keys.length;
+  }
+
+  @Override
+  protected void reallocate(int capacity)
+  {
+    m_keys = Arrays.copyOfRange(m_keys, m_from, m_from + capacity);
+    m_values = Arrays.copyOfRange(m_values, m_from, m_from + capacity);
+  }
+
+  @Override
+  protected LongCollector view(int from, int to)
+  {
+    return new LongCollector(m_keys, m_values, from, to);
+  }
+
+  @Override
+  protected boolean sameKey(int i, int j)
+  {
+    return m_keys[i] == m_keys[j];
+  }
+
+  @Override
+  protected void appendTuple(StringBuilder out, int i)
+  {
+    out.append(m_keys[i]).append(",").append(m_values[i]);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Data source of {@link LongTuple}s used as the input of the map and
+ * reduce phases of an {@link LongWorkflow}. This is the counterpart of
+ * {@link InCollector} for numeric jobs.
+ * 
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface LongInCollector
+{
+	/**
+	 * Tells whether there are more tuples to enumerate
+	 * @return true if there are more tuples
+	 */
+	public boolean hasNext();
+	
+	/**
+	 * Returns the next tuple. To avoid creating an object for each
+	 * tuple, a collector can return the same {@link LongTuple} at every
+	 * call, overwritten with the contents of the next tuple: a caller
+	 * that needs to keep a tuple must copy it.
+	 * @return The tuple
+	 */
+	public LongTuple next();
+	
+	/**
+	 * Count the number of tuples in the collector
+	 * @return The number of tuples. A collector for which
+	 * the size cannot be computed should return -1.
+	 */
+	public int count();
+	
+	/**
+	 * Rewinds the collector to the beginning of its enumeration
+	 */
+	public void rewind();
+}
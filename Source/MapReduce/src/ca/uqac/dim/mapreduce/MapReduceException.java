@@ -0,0 +1,53 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Exception thrown by a {@link Workflow} when a map or reduce task
+ * fails. The exception thrown by the task itself (if any) is available
+ * as the cause of this exception.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class MapReduceException extends RuntimeException
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Create a MapReduceException
+   * @param message The detail message
+   * @param cause The exception thrown by the failed task
+   */
+  public MapReduceException(String message, Throwable cause)
+  {
+    super(message, cause);
+  }
+
+  /**
+   * Create a MapReduceException
+   * @param message The detail message
+   */
+  public MapReduceException(String message)
+  {
+    super(message);
+  }
+}
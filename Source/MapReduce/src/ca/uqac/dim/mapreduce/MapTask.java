@@ -0,0 +1,95 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Class who encapsulates the processing of a mapper and his informations 
+ * in a task
+ * @author Maxime Soucy-Boivin
+ */
+class MapTask<K,V> implements Runnable
+{
+  /**
+   * The number of tuples a task keeps in its private buffer before
+   * handing them to the collector of all results
+   */
+  static final int FLUSH_THRESHOLD = 64 * 1024;
+
+  /**
+   * Informations needed to be transferred to the mapper
+   * For more information, see function submit
+   */
+  InCollector<K,V> tThread = null;
+  OutCollector<K,V> Thread_Temp_col = null;
+  Mapper<K,V> Thread_m_mapper = null;
+  Reducer<K,V> Thread_m_combiner = null;
+
+  /**
+   * Where to count the tuples read from the split, or null
+   */
+  WorkflowMetrics metrics = null;
+
+  /**
+   * Create an instance of MapTask
+   * @param split The tuples to analyse
+   * @param temp_coll The collector of all results
+   * @param m_mapper The {@link Mapper} to use in the map phase
+   * @param m_combiner The {@link Reducer} to use as a combiner, or null
+   */
+  MapTask(InCollector<K,V> split, OutCollector<K,V> temp_coll, Mapper<K,V> m_mapper, Reducer<K,V> m_combiner) 
+  {
+    this.tThread = split;
+    this.Thread_Temp_col = temp_coll;
+    this.Thread_m_mapper = m_mapper;
+    this.Thread_m_combiner = m_combiner;
+  }
+
+  /**
+   * Function who start the execution of the mapper on each tuple of
+   * the split
+   */
+  public void run() 
+  {
+    // The mapper writes to a private buffer, handed over when it
+    // grows large and at the end
+    TaskBuffer<K,V> buffer = new TaskBuffer<K,V>();
+    CombiningCollector<K,V> local = null;
+    OutCollector<K,V> target = buffer;
+    if (Thread_m_combiner != null)
+    {
+      local = new CombiningCollector<K,V>(Thread_m_combiner, buffer);
+      target = local;
+    }
+    long num_tuples = 0;
+    tThread.rewind();
+    while (tThread.hasNext())
+    {
+      Thread_m_mapper.map(target, tThread.next());
+      num_tuples++;
+      if (local != null && local.size() >= FLUSH_THRESHOLD)
+        local.flush();
+      if (buffer.size() >= FLUSH_THRESHOLD)
+        buffer.flushTo(Thread_Temp_col);
+    }
+    if (local != null)
+      local.flush();
+    buffer.flushTo(Thread_Temp_col);
+    if (metrics != null)
+      metrics.addMapInputTuples(num_tuples);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Input collector reading a text file line by line through a memory
+ * mapping of the file. The lines are found directly in the mapped
+ * region, and each one is returned as a {@link MappedTuple} pointing
+ * to its bytes: no byte of the file is copied to the heap unless a
+ * mapper asks for the line as a String.
+ * <p>
+ * Like the {@link LineCollector}, the file can be divided into
+ * splits covering ranges of bytes, a line belonging to the split where
+ * its first byte is. Each split maps its own region of the file. The
+ * same restriction applies to the character set, which must encode
+ * <tt>'\n'</tt> as a single byte that does not appear in other characters.
+ * <p>
+ * The file is mapped in windows of at most {@value #WINDOW_SIZE}
+ * bytes, so that files larger than what a single mapping can hold
+ * can still be read.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class MappedLineCollector implements SplittableCollector<String,String>
+{
+  /**
+   * The maximum size of a mapped window, in bytes
+   */
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The minimum size of a split, in bytes
+   */
+  private static final long MIN_SPLIT_SIZE = 64 * 1024;
+
+  private File m_file = null;
+  private Charset m_charset = null;
+  private long m_start = 0;
+  private long m_end = Long.MAX_VALUE;
+
+  private FileChannel m_channel = null;
+  private long m_fileLength = 0;
+
+  /**
+   * The mapped window, and the position of its first byte in the file
+   */
+  private MappedByteBuffer m_window = null;
+  private long m_windowStart = 0;
+
+  /**
+   * The position in the file of the next line to read
+   */
+  private long m_position = 0;
+
+  private MappedTuple m_next = null;
+  private int m_count = -1;
+
+  /**
+   * Create a MappedLineCollector reading a file in the platform's
+   * default character set
+   * @param filename The name of the file to read
+   */
+  public MappedLineCollector(String filename)
+  {
+    this(new File(filename), Charset.defaultCharset());
+  }
+
+  /**
+   * Create a MappedLineCollector
+   * @param file The file to read
+   * @param charset The character set of the file
+   */
+  public MappedLineCollector(File file, Charset charset)
+  {
+    this(file, charset, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a MappedLineCollector reading the lines that start in a
+   * range of bytes of a file
+   * @param file The file to read
+   * @param charset The character set of the file
+   * @param start The position of the first byte of the range
+   * @param end The position following the last byte of the range
+   */
+  public MappedLineCollector(File file, Charset charset, long start, long end)
+  {
+    super();
+    m_file = file;
+    m_charset = charset;
+    m_start = start;
+    m_end = end;
+  }
+
+  @Override
+  public List<InCollector<String,String>> getSplits(int num_splits)
+  {
+    long start = m_start;
+    long end = Math.min(m_end, m_file.length());
+    long size = Math.max(MIN_SPLIT_SIZE, (end - start + num_splits - 1) / Math.max(1, num_splits));
+    List<InCollector<String,String>> splits = new ArrayList<InCollector<String,String>>();
+    while (start < end)
+    {
+      long split_end = Math.min(end, start + size);
+      splits.add(new MappedLineCollector(m_file, m_charset, start, split_end));
+      start = split_end;
+    }
+    if (splits.isEmpty())
+      splits.add(this);
+    return splits;
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    if (m_next != null)
+      return true;
+    try
+    {
+      if (m_channel == null)
+        open();
+      m_next = readLine();
+    }
+    catch (IOException e)
+    {
+      throw new MapReduceException("Cannot read " + m_file, e);
+    }
+    if (m_next == null)
+      close();
+    return m_next != null;
+  }
+
+  @Override
+  public Tuple<String,String> next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    Tuple<String,String> t = m_next;
+    m_next = null;
+    return t;
+  }
+
+  @Override
+  public void remove()
+  {
+    throw new UnsupportedOperationException("Cannot remove a line from a file");
+  }
+
+  /**
+   * Returns a bound on the number of lines of the collector, without
+   * reading the file: the number of lines if it is already known, and
+   * otherwise the number of bytes of the range, since no two lines
+   * start at the same byte
+   * @return The bound
+   */
+  /*package*/ long maxCount()
+  {
+    if (m_count >= 0)
+      return m_count;
+    return Math.max(0, Math.min(m_end, m_file.length()) - m_start);
+  }
+
+  @Override
+  public int count()
+  {
+    if (m_count >= 0)
+      return m_count;
+    MappedLineCollector copy = new MappedLineCollector(m_file, m_charset, m_start, m_end);
+    int n = 0;
+    while (copy.hasNext())
+    {
+      // The lines are not decoded, so this is only a scan for '\n'
+      copy.next();
+      n++;
+    }
+    m_count = n;
+    return m_count;
+  }
+
+  @Override
+  public void rewind()
+  {
+    close();
+    m_next = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    if (m_start == 0 && m_end == Long.MAX_VALUE)
+      return m_file.toString();
+    return m_file + "[" + m_start + "," + m_end + ")";
+  }
+
+  /**
+   * Opens the file and moves to the first line of the range
+   * @throws IOException If the file cannot be read
+   */
+  private void open() throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+    m_channel = raf.getChannel();
+    m_fileLength = m_channel.size();
+    m_window = null;
+    m_position = m_start;
+    if (m_start > 0 && m_start <= m_fileLength)
+    {
+      // The line containing the byte before the range belongs to the
+      // previous split: skip to the end of that line
+      long eol = findNewline(m_start - 1);
+      m_position = eol < 0 ? m_fileLength : eol + 1;
+    }
+  }
+
+  /**
+   * Reads the next line of the range
+   * @return The line, or null if there is no more line in the range
+   * @throws IOException If the file cannot be read
+   */
+  private MappedTuple readLine() throws IOException
+  {
+    if (m_position >= m_end || m_position >= m_fileLength)
+      return null;
+    long line_start = m_position;
+    long eol = findNewline(line_start);
+    long line_end = eol < 0 ? m_fileLength : eol;
+    m_position = eol < 0 ? m_fileLength : eol + 1;
+    // findNewline() leaves a window containing the whole line
+    mapWindow(line_start, line_end - line_start);
+    if (line_end > line_start && m_window.get((int) (line_end - 1 - m_windowStart)) == '\r')
+      line_end--;
+    ByteBuffer bytes = m_window.duplicate();
+    bytes.position((int) (line_start - m_windowStart));
+    bytes.limit((int) (line_end - m_windowStart));
+    return new MappedTuple(bytes.slice(), m_charset);
+  }
+
+  /**
+   * Finds the next '\n' in the file
+   * @param from The position where to start looking
+   * @return The position of the '\n', or -1 if there is none before
+   *   the end of the file
+   * @throws IOException If the file cannot be read
+   */
+  private long findNewline(long from) throws IOException
+  {
+    long length = WINDOW_SIZE;
+    mapWindow(from, 0);
+    long pos = from;
+    while (true)
+    {
+      int limit = m_window.limit();
+      for (int i = (int) (pos - m_windowStart); i < limit; i++)
+      {
+        if (m_window.get(i) == '\n')
+          return m_windowStart + i;
+      }
+      pos = m_windowStart + limit;
+      if (pos >= m_fileLength)
+        return -1;
+      // The line does not fit in the window: map a larger one
+      // starting at the same place
+      length = Math.min(Integer.MAX_VALUE, length * 2);
+      if (pos - from >= Integer.MAX_VALUE)
+        throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes");
+      mapWindow(from, length);
+    }
+  }
+
+  /**
+   * Makes sure that the mapped window contains a range of the file,
+   * mapping a new window starting at the beginning of the range if
+   * necessary
+   * @param from The position of the first byte of the range
+   * @param length The number of bytes of the range
+   * @throws IOException If the file cannot be mapped
+   */
+  private void mapWindow(long from, long length) throws IOException
+  {
+    if (m_window != null && from >= m_windowStart
+        && from + length <= m_windowStart + m_window.limit()
+        && (length > 0 || from < m_windowStart + m_window.limit()))
+      return;
+    long size = Math.min(Math.max(length, WINDOW_SIZE), m_fileLength - from);
+    size = Math.min(size, Integer.MAX_VALUE);
+    m_window = m_channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+    m_windowStart = from;
+  }
+
+  /**
+   * Closes the file, if it is open
+   */
+  private void close()
+  {
+    if (m_channel == null)
+      return;
+    try
+    {
+      m_channel.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing we can do
+    }
+    m_channel = null;
+    m_window = null;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Tuple (<i>l</i>, "") whose key <i>l</i> is a line of a file, as read by a
+ * {@link MappedLineCollector}. The tuple does not hold a copy of the
+ * line: it points to the bytes of the line in the memory-mapped file.
+ * The line is decoded into a String only the first time
+ * {@link #getKey()} is called; a mapper that only needs the raw bytes
+ * can read them with {@link #getBytes()} and never decode it at all.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class MappedTuple extends Tuple<String,String>
+{
+  private ByteBuffer m_bytes = null;
+  private Charset m_charset = null;
+  private boolean m_decoded = false;
+
+  /**
+   * Create a MappedTuple
+   * @param bytes The bytes of the line. The buffer is not copied.
+   * @param charset The character set used to decode the line
+   */
+  /*package*/ MappedTuple(ByteBuffer bytes, Charset charset)
+  {
+    super();
+    m_bytes = bytes;
+    m_charset = charset;
+    setValue("");
+  }
+
+  /**
+   * Returns the bytes of the line, without its line terminator
+   * @return A read-only buffer over the bytes of the line
+   */
+  public ByteBuffer getBytes()
+  {
+    return m_bytes.asReadOnlyBuffer();
+  }
+
+  @Override
+  public String getKey()
+  {
+    if (!m_decoded)
+    {
+      super.setKey(m_charset.decode(m_bytes.duplicate()).toString());
+      m_decoded = true;
+    }
+    return super.getKey();
+  }
+
+  @Override
+  public void setKey(String key)
+  {
+    super.setKey(key);
+    m_decoded = true;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Output collector that sends each tuple it receives to a mapper, as
+ * soon as it is received, and writes the mapper's output to another
+ * collector. Chaining such collectors fuses a sequence of mappers into
+ * a single pass over the data: no list of intermediate tuples is ever
+ * built between two of them.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class MappingCollector<K,V> implements OutCollector<K,V>
+{
+  private Mapper<K,V> m_mapper = null;
+  private OutCollector<K,V> m_out = null;
+
+  /**
+   * Create a MappingCollector
+   * @param mapper The mapper to apply to each tuple
+   * @param out The collector where the mapper's output is written
+   */
+  MappingCollector(Mapper<K,V> mapper, OutCollector<K,V> out)
+  {
+    super();
+    m_mapper = mapper;
+    m_out = out;
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    m_mapper.map(m_out, t);
+  }
+
+  @Override
+  public void rewind()
+  {
+    // Nothing to do
+  }
+}
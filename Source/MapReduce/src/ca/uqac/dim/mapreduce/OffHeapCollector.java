@@ -0,0 +1,394 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Collector that keeps its tuples outside of the Java heap. The tuples
+ * are written with a pair of {@link Serde}s, one after the other, into
+ * direct {@link ByteBuffer}s of fixed size (the <em>arenas</em>); a new
+ * arena is allocated when the current one is full. They are read back
+ * only when the collector is enumerated. A collector of millions of
+ * small tuples is hence a few large buffers, instead of millions of
+ * objects for the garbage collector to trace.
+ * <p>
+ * The collector can be the source of a job, the store of the map
+ * output and the output of the job. It is filled with
+ * {@link #collect(Tuple)} or {@link #addAll(Collection)}, and then
+ * given to a workflow, which can split it like any other source. When
+ * serdes are given to {@link ParallelWorkflow#setOffHeapSerdes(Serde, Serde)}
+ * or {@link SequentialWorkflow#setOffHeapSerdes(Serde, Serde)}, the
+ * map output is kept in such collectors until it is grouped by key,
+ * and the reducers write the results of the job to another one.
+ * <p>
+ * Since a tuple is rebuilt each time it is read, the tuples returned
+ * by two enumerations are equal, but not the same objects. The
+ * position of every {@value #INDEX_INTERVAL}th tuple is kept, so that
+ * {@link #getSplits(int)} can divide the collector without reading it.
+ * The collector can be written by many threads at once, but must not
+ * be written while it is read.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class OffHeapCollector<K,V> implements SplittableCollector<K,V>, BulkCollector<K,V>
+{
+  /**
+   * The size of an arena, in bytes, if none is given
+   */
+  public static final int DEFAULT_ARENA_SIZE = 1 << 20;
+
+  /**
+   * The number of tuples between two positions kept in the index
+   */
+  public static final int INDEX_INTERVAL = 1024;
+
+  private final Serde<K> m_keySerde;
+  private final Serde<V> m_valueSerde;
+  private final int m_arenaSize;
+  private final List<ByteBuffer> m_arenas = new ArrayList<ByteBuffer>();
+  private ByteBuffer m_current = null;
+  private int m_count = 0;
+  private long m_numBytes = 0;
+
+  /**
+   * The position of every {@link #INDEX_INTERVAL}th tuple: the index of
+   * its arena in the upper 32 bits, and its offset in the arena in the
+   * lower 32 bits
+   */
+  private long[] m_index = new long[16];
+
+  /**
+   * The enumeration of the collector itself, created on the first call
+   * to {@link #hasNext()}
+   */
+  private Range m_it = null;
+
+  /**
+   * Create an OffHeapCollector with arenas of the default size
+   * @param keys The serde of the keys
+   * @param values The serde of the values
+   */
+  public OffHeapCollector(Serde<K> keys, Serde<V> values)
+  {
+    this(keys, values, DEFAULT_ARENA_SIZE);
+  }
+
+  /**
+   * Create an OffHeapCollector
+   * @param keys The serde of the keys
+   * @param values The serde of the values
+   * @param arena_size The size of an arena, in bytes. A tuple larger
+   *   than this is given an arena of its own.
+   */
+  public OffHeapCollector(Serde<K> keys, Serde<V> values, int arena_size)
+  {
+    super();
+    m_keySerde = keys;
+    m_valueSerde = values;
+    m_arenaSize = Math.max(16, arena_size);
+  }
+
+  @Override
+  public synchronized void collect(Tuple<K,V> t)
+  {
+    if (m_current == null)
+      allocate(m_arenaSize);
+    int start = m_current.position();
+    try
+    {
+      write(t);
+    }
+    catch (BufferOverflowException e)
+    {
+      m_current.position(start);
+      start = 0;
+      long size = m_arenaSize;
+      while (true)
+      {
+        allocate((int) Math.min(size, Integer.MAX_VALUE));
+        try
+        {
+          write(t);
+          break;
+        }
+        catch (BufferOverflowException e2)
+        {
+          if (size >= Integer.MAX_VALUE)
+            throw new MapReduceException("Tuple too large for an arena: " + t, e2);
+          m_arenas.remove(m_arenas.size() - 1);
+          size *= 2;
+        }
+      }
+    }
+    if (m_count % INDEX_INTERVAL == 0)
+    {
+      int block = m_count / INDEX_INTERVAL;
+      if (block == m_index.length)
+        m_index = Arrays.copyOf(m_index, 2 * m_index.length);
+      m_index[block] = ((long) (m_arenas.size() - 1) << 32) | start;
+    }
+    m_numBytes += m_current.position() - start;
+    m_count++;
+  }
+
+  /**
+   * Add a collection of tuples to the collector
+   * @param list A collection of {@link Tuple}
+   */
+  @Override
+  public synchronized void addAll(Collection<Tuple<K,V>> list)
+  {
+    for (Tuple<K,V> t : list)
+    {
+      collect(t);
+    }
+  }
+
+  @Override
+  public synchronized int count()
+  {
+    return m_count;
+  }
+
+  /**
+   * Returns the number of bytes taken by the serialized tuples
+   * @return The number of bytes
+   */
+  public synchronized long getNumBytes()
+  {
+    return m_numBytes;
+  }
+
+  /**
+   * Returns the number of bytes of direct memory allocated for the
+   * arenas, which includes the free space at the end of each of them
+   * @return The number of bytes
+   */
+  public synchronized long getCapacity()
+  {
+    long total = 0;
+    for (ByteBuffer arena : m_arenas)
+    {
+      total += arena.capacity();
+    }
+    return total;
+  }
+
+  /**
+   * Removes all the tuples. The arenas are released, and their memory
+   * is freed once the enumerations still reading them are discarded.
+   */
+  public synchronized void clear()
+  {
+    m_arenas.clear();
+    m_current = null;
+    m_count = 0;
+    m_numBytes = 0;
+    m_index = new long[16];
+    m_it = null;
+  }
+
+  /**
+   * Reads all the tuples back into a collector on the heap, and
+   * releases the arenas
+   * @return The collector
+   */
+  /*package*/ synchronized Collector<K,V> decode()
+  {
+    Collector<K,V> c = new Collector<K,V>();
+    Range r = new Range(0, m_count);
+    while (r.hasNext())
+    {
+      c.toList().add(r.next());
+    }
+    clear();
+    return c;
+  }
+
+  /**
+   * Divides the collector into splits with the same number of tuples.
+   * A split starts at a position kept in the index: there are never
+   * more splits than the number of tuples divided by
+   * {@link #INDEX_INTERVAL}.
+   * @param num_splits The number of splits
+   * @return The list of splits
+   */
+  @Override
+  public synchronized List<InCollector<K,V>> getSplits(int num_splits)
+  {
+    List<InCollector<K,V>> splits = new ArrayList<InCollector<K,V>>();
+    int num_blocks = (m_count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+    int blocks_per_split = Math.max(1, (num_blocks + num_splits - 1) / Math.max(1, num_splits));
+    for (int block = 0; block < num_blocks; block += blocks_per_split)
+    {
+      int first = block * INDEX_INTERVAL;
+      int last = (int) Math.min(m_count, (long) (block + blocks_per_split) * INDEX_INTERVAL);
+      splits.add(new Range(block, last - first));
+    }
+    return splits;
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    if (m_it == null)
+    {
+      synchronized (this)
+      {
+        m_it = new Range(0, m_count);
+      }
+    }
+    return m_it.hasNext();
+  }
+
+  @Override
+  public Tuple<K,V> next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return m_it.next();
+  }
+
+  @Override
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void rewind()
+  {
+    m_it = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    List<Tuple<K,V>> tuples = new ArrayList<Tuple<K,V>>();
+    Range r = null;
+    synchronized (this)
+    {
+      r = new Range(0, m_count);
+    }
+    while (r.hasNext())
+    {
+      tuples.add(r.next());
+    }
+    return tuples.toString();
+  }
+
+  /**
+   * Starts a new arena, which becomes the current one
+   * @param size The size of the arena
+   */
+  private void allocate(int size)
+  {
+    m_current = ByteBuffer.allocateDirect(size);
+    m_arenas.add(m_current);
+  }
+
+  private void write(Tuple<K,V> t)
+  {
+    m_keySerde.write(t.getKey(), m_current);
+    m_valueSerde.write(t.getValue(), m_current);
+  }
+
+  /**
+   * Reads back a range of consecutive tuples, starting at a position
+   * kept in the index
+   */
+  private class Range implements InCollector<K,V>
+  {
+    private final int m_block;
+    private final int m_size;
+    private final List<ByteBuffer> m_buffers;
+    private int m_arena;
+    private ByteBuffer m_buffer;
+    private int m_left;
+
+    Range(int block, int size)
+    {
+      m_block = block;
+      m_size = size;
+      // The arenas written so far, read up to their current position
+      m_buffers = new ArrayList<ByteBuffer>(m_arenas.size());
+      for (ByteBuffer arena : m_arenas)
+      {
+        ByteBuffer b = arena.duplicate();
+        b.flip();
+        m_buffers.add(b);
+      }
+      rewind();
+    }
+
+    @Override
+    public int count()
+    {
+      return m_size;
+    }
+
+    @Override
+    public void rewind()
+    {
+      m_left = m_size;
+      m_buffer = null;
+      if (m_size == 0)
+        return;
+      long position = m_index[m_block];
+      m_arena = (int) (position >>> 32);
+      m_buffer = m_buffers.get(m_arena).duplicate();
+      m_buffer.position((int) position);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return m_left > 0;
+    }
+
+    @Override
+    public Tuple<K,V> next()
+    {
+      if (m_left == 0)
+        throw new NoSuchElementException();
+      while (!m_buffer.hasRemaining())
+      {
+        m_arena++;
+        m_buffer = m_buffers.get(m_arena).duplicate();
+      }
+      K key = m_keySerde.read(m_buffer);
+      V value = m_valueSerde.read(m_buffer);
+      m_left--;
+      return new Tuple<K,V>(key, value);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
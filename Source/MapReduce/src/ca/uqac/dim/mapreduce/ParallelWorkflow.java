@@ -17,14 +17,18 @@
  */
 package ca.uqac.dim.mapreduce;
 import java.util.*;
-import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Coordinates the execution of a map-reduce job in a multithreading 
- * mode. This means that the data source is split tuple by tuple and 
- * each tuple has it's own mapper (thread). After that, the output 
- * tuples are collected, split according to their keys, and  each 
- * list is sent to his reducer (thread).  As such, the ParallelWorkflow 
+ * mode. This means that the data source is divided into splits and 
+ * each split has it's own mapper (task). After that, the output 
+ * tuples are collected into partitions (according to a
+ * {@link Partitioner}), each partition is split according to the keys
+ * of its tuples in parallel with the others, and each list is sent to
+ * his reducer (task) as soon as its partition is ready. The tasks are
+ * executed by the pools of worker threads of two {@link ResourceManager}s.  As such, the ParallelWorkflow 
  * reproduces exactly the processing done by map-reduce, 
  * with the distribution of computation. It is best suited to 
  * pedagogical and debugging purposes.
@@ -36,9 +40,53 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
 {
   private Mapper<K,V> m_mapper = null;
   private Reducer<K,V> m_reducer = null;
+  private Reducer<K,V> m_combiner = null;
   private InCollector<K,V> m_source = null;
   private ResourceManager<K,V> m_managerMapper = null;
   private ResourceManager<K,V> m_managerReducer = null;
+  private Partitioner<K> m_partitioner = new HashPartitioner<K>();
+
+  /**
+   * The number of partitions of the map output. By default, there is
+   * one partition per available processor.
+   */
+  private int m_numPartitions = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of splits the source is divided into, that is, the
+   * number of map tasks. By default, there are twice as many splits
+   * as available processors, so that a slow split does not leave the
+   * other processors idle for long at the end of the map phase.
+   */
+  private int m_numSplits = 2 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of tuples in a split, for sources that cannot be divided
+   * by themselves and whose size is unknown
+   */
+  private static final int DEFAULT_SPLIT_SIZE = 1024;
+
+  /**
+   * The maximum number of map output tuples kept in memory. When this
+   * value is positive, the map output is written to disk in sorted runs
+   * whenever this number is reached. 0 means the map output is kept
+   * in memory.
+   */
+  private int m_spillThreshold = 0;
+
+  /**
+   * The serdes writing the spilled tuples, or null to use Java
+   * serialization
+   */
+  private Serde<K> m_keySerde = null;
+  private Serde<V> m_valueSerde = null;
+
+  /**
+   * The serdes of the map output and of the job output kept outside
+   * of the heap, or null to keep them on the heap
+   */
+  private Serde<K> m_offHeapKeys = null;
+  private Serde<V> m_offHeapValues = null;
 
   /**
    * The total number of tuples that the mappers will produce.
@@ -58,6 +106,41 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
    */
   protected long m_maxTuples = 0;
 
+  /**
+   * The measurements of the last run
+   */
+  private WorkflowMetrics m_metrics = new WorkflowMetrics();
+
+  /**
+   * The comparators of the sorted shuffle. The shuffle is sorted only
+   * if a key comparator is set.
+   */
+  private Comparator<? super K> m_keyOrder = null;
+  private Comparator<? super K> m_grouping = null;
+  private Comparator<? super V> m_valueOrder = null;
+
+  /**
+   * The number of workers of the fork/join reduce phase, or 0 if the
+   * reducers are submitted to the reduce manager as the groups come
+   */
+  private int m_forkJoinParallelism = 0;
+
+  /**
+   * Whether the shuffle starts while the map phase is in progress
+   */
+  private boolean m_pipelined = false;
+
+  /**
+   * Whether the keys are replaced by numbers during the shuffle
+   */
+  private boolean m_keyDictionary = false;
+
+  /**
+   * The scheduler of the reduce phase of the current run, when it is
+   * in fork/join mode
+   */
+  private ForkJoinReduce<K,V> m_forkJoin = null;
+
   public ParallelWorkflow(Mapper<K,V> m, Reducer<K,V> r, InCollector<K,V> c)
   {
     super();
@@ -99,6 +182,20 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
     m_reducer = r;
   }
 
+  /**
+   * Sets the combiner of the job. When a combiner is set, the output of
+   * each map task is grouped by key and sent to the combiner, and only
+   * the combiner's output goes to the shuffle. The combiner can be the
+   * job's reducer itself if the reduction is associative. By default,
+   * there is no combiner.
+   * @param c The {@link Reducer} to use as a combiner, or null to
+   *   disable the combination
+   */
+  public void setCombiner(Reducer<K,V> c)
+  {
+    m_combiner = c;
+  }
+
   public void setSource(InCollector<K,V> c)
   {
     m_source = c;
@@ -114,6 +211,260 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
     m_managerReducer = rmR;
   }
 
+  /**
+   * Makes the map and reduce tasks run on virtual threads instead of
+   * pools of worker threads, which suits mappers and reducers that
+   * block on I/O. This replaces the managers of the map and reduce
+   * phases with managers created by
+   * {@link ResourceManager#withVirtualThreads(int)}; see that method
+   * for what happens on a JVM without virtual threads.
+   * <p>
+   * Since a task blocked on I/O no longer holds a processor, the
+   * number of map tasks is no longer tied to the number of
+   * processors: the source is divided into at least
+   * <tt>maxTasks</tt> splits, so that this many mappers can wait at
+   * the same time. A later call to {@link #setNumSplits(int)} still
+   * sets the number of splits.
+   * @param maxTasks The maximum number of tasks of each phase running
+   *   at the same time
+   */
+  public void setVirtualThreads(int maxTasks)
+  {
+    setManagerMapper(ResourceManager.<K,V>withVirtualThreads(maxTasks));
+    setManagerReducer(ResourceManager.<K,V>withVirtualThreads(maxTasks));
+    setNumSplits(Math.max(m_numSplits, maxTasks));
+  }
+
+  /**
+   * Makes the map and reduce phases run on managers that size their
+   * pools by themselves, from the number of processors and the time
+   * the tasks spend blocked; see {@link ResourceManager#adaptive()}.
+   * With such managers, a source too small to be worth dividing is
+   * processed sequentially. The size of the source is only checked
+   * when it is known without reading the source: for a file, the
+   * number of bytes is used as a bound on the number of lines.
+   */
+  public void setAdaptiveThreads()
+  {
+    setManagerMapper(ResourceManager.<K,V>adaptive());
+    setManagerReducer(ResourceManager.<K,V>adaptive());
+  }
+
+  /**
+   * Sets the {@link Partitioner} used to route the output tuples of
+   * the map phase to the partitions. By default, a {@link HashPartitioner}
+   * is used.
+   * @param p The partitioner
+   */
+  public void setPartitioner(Partitioner<K> p)
+  {
+    m_partitioner = p;
+  }
+
+  /**
+   * Sets the number of partitions of the map output. Each partition
+   * is grouped by key in a task of its own.
+   * @param n The number of partitions
+   */
+  public void setNumPartitions(int n)
+  {
+    m_numPartitions = Math.max(1, n);
+  }
+
+  /**
+   * Sets the number of splits the source is divided into. Each split
+   * is processed by a map task of its own.
+   * @param n The number of splits
+   */
+  public void setNumSplits(int n)
+  {
+    m_numSplits = Math.max(1, n);
+  }
+
+  /**
+   * Sets the maximum number of tuples produced by the map phase that
+   * are kept in memory. Beyond this number, the map output is sorted
+   * and spilled to temporary files, which are then merged and read
+   * back one group of tuples at a time when feeding the reducers. This
+   * makes it possible to process map outputs larger than the memory,
+   * provided the keys and values are {@link java.io.Serializable}, or
+   * that serdes are given with {@link #setSerdes(Serde, Serde)}.
+   * @param max_tuples The number of tuples, or 0 to keep the whole map
+   *   output in memory (the default)
+   */
+  public void setSpillThreshold(int max_tuples)
+  {
+    m_spillThreshold = Math.max(0, max_tuples);
+  }
+
+  /**
+   * Sets how the keys and the values are written to disk when the
+   * map output is spilled, instead of Java serialization. Keys and
+   * values then need not be {@link java.io.Serializable}.
+   * @param keys The serde of the keys, or null
+   * @param values The serde of the values, or null
+   * @throws IllegalArgumentException If only one of the serdes is null
+   */
+  public void setSerdes(Serde<K> keys, Serde<V> values)
+  {
+    if ((keys == null) != (values == null))
+      throw new IllegalArgumentException("The serdes of the keys and of the values must be given together");
+    m_keySerde = keys;
+    m_valueSerde = values;
+  }
+
+  /**
+   * Keeps the map output and the output of the job outside of the
+   * heap, serialized with the given serdes into
+   * {@link OffHeapCollector}s. Each partition of the map output stays
+   * serialized until the task grouping it by key decodes it, and the
+   * reducers write their results to an OffHeapCollector, which
+   * {@link #run()} returns. This leaves fewer objects for the garbage
+   * collector to trace while the mappers run. The map output is kept
+   * on the heap when it is spilled to disk, pipelined or replaced by
+   * numbers, but the output of the job is still kept outside of it.
+   * @param keys The serde of the keys, or null
+   * @param values The serde of the values, or null
+   * @throws IllegalArgumentException If only one of the serdes is null
+   */
+  public void setOffHeapSerdes(Serde<K> keys, Serde<V> values)
+  {
+    if ((keys == null) != (values == null))
+      throw new IllegalArgumentException("The serdes of the keys and of the values must be given together");
+    m_offHeapKeys = keys;
+    m_offHeapValues = values;
+  }
+
+  /**
+   * Makes the shuffle sort the map output instead of hashing it. Each
+   * partition is sorted by a task of its own, and the sorted partitions
+   * are merged so that the reducers are submitted in key order. Since
+   * the reducers run in parallel, the tuples of the output collector
+   * are not necessarily in that order. By default, the keys are
+   * submitted in no particular order.
+   * @param c The order of the keys, or null to go back to the
+   *   hash-based shuffle
+   */
+  public void setKeyComparator(Comparator<? super K> c)
+  {
+    m_keyOrder = c;
+  }
+
+  /**
+   * Sets which keys are sent to the same call to the reducer, when
+   * the shuffle is sorted. Keys of a same group must be contiguous in
+   * the order given by the key comparator; the key passed to the
+   * reducer is the first one of the group. By default, each distinct
+   * key forms its own group.
+   * @param c The grouping comparator, or null to group equal keys only
+   */
+  public void setGroupingComparator(Comparator<? super K> c)
+  {
+    m_grouping = c;
+  }
+
+  /**
+   * Sets the order in which the reducer receives the tuples of a
+   * group, when the shuffle is sorted (a "secondary sort"). By
+   * default, they come in no particular order.
+   * @param c The order of the values, or null
+   */
+  public void setValueComparator(Comparator<? super V> c)
+  {
+    m_valueOrder = c;
+  }
+
+  /**
+   * Makes the reduce phase run on a fork/join pool. All the groups are
+   * gathered first, and submitted to the pool from the largest to the
+   * smallest, so that a free worker always takes the largest group
+   * still waiting; if the reducer is a {@link DecomposableReducer},
+   * oversized groups are in addition divided into parts, submitted
+   * according to their size and combined in parallel. This keeps a few huge
+   * groups of a skewed job from running alone at the end of the phase.
+   * The reduce manager is not used in this mode, nor when the map
+   * output is spilled to disk, since the groups are then read back
+   * one at a time.
+   * @param parallelism The number of workers, or 0 to submit the
+   *   reducers to the reduce manager (the default)
+   */
+  public void setForkJoinReduce(int parallelism)
+  {
+    m_forkJoinParallelism = Math.max(0, parallelism);
+  }
+
+  /**
+   * Makes the shuffle overlap with the map phase. The map output is
+   * routed to the partitions as it is produced, and each time a
+   * partition has received a batch of tuples, the batch is grouped (or
+   * sorted, if the shuffle is sorted) by a task of the reduce manager,
+   * while the mappers go on. If the reducer is a
+   * {@link DecomposableReducer}, or if a combiner is set, each batch is
+   * also combined, which reduces most of the map output before the map
+   * phase is over. Only the last batches and the final reductions are
+   * left once the last mapper is done.
+   * <p>
+   * Since the mappers submit tasks to the reduce manager, it must not
+   * be the manager of the map phase; {@link #run()} throws an
+   * IllegalStateException otherwise. This mode is not used when the
+   * map output is spilled to disk, and the two phases may then share
+   * a manager.
+   * @param b true to overlap the shuffle with the map phase, false to
+   *   start it when all the mappers are done (the default)
+   */
+  public void setPipelined(boolean b)
+  {
+    m_pipelined = b;
+  }
+
+  /**
+   * Makes the shuffle work on numbers instead of keys. Each distinct
+   * key is given a number the first time a mapper outputs it, and
+   * only the number and the value of each tuple are kept until the
+   * reduce phase. The partitions are then grouped by sorting the
+   * numbers, without hashing nor comparing keys, and the tuples given
+   * to a reducer all share the same key object. This saves time and
+   * memory when the keys are objects repeated in many tuples, such as
+   * words.
+   * <p>
+   * The keys are spread among the partitions by their number, without
+   * the partitioner. This mode is not used when the shuffle is sorted,
+   * since the order of the keys is then needed, nor when it is
+   * pipelined or spilled to disk.
+   * @param b true to replace the keys by numbers, false to shuffle
+   *   the keys themselves (the default)
+   */
+  public void setKeyDictionary(boolean b)
+  {
+    m_keyDictionary = b;
+  }
+
+  /**
+   * Returns the number of tuples of the source, or a bound on it, if
+   * it can be found without reading the source
+   * @return The number of tuples, or -1 if finding it could take as
+   *   long as the job itself
+   */
+  private long sourceSize()
+  {
+    if (m_source instanceof Collector<?,?> || m_source instanceof OffHeapCollector<?,?>)
+      return m_source.count();
+    if (m_source instanceof LineCollector)
+      return ((LineCollector) m_source).maxCount();
+    if (m_source instanceof MappedLineCollector)
+      return ((MappedLineCollector) m_source).maxCount();
+    return -1;
+  }
+
+  /**
+   * Runs the map-reduce job.
+   * @return An InCollector containing all output tuples
+   * @throws MapReduceException If a mapper or a reducer has thrown an
+   *   exception. The first exception thrown is the cause of this exception.
+   * @throws IllegalStateException If the shuffle is pipelined and the
+   *   map and reduce phases have the same manager (unless the map
+   *   output is spilled to disk, which does not use the pipeline)
+   */
   public InCollector<K,V> run()
   {
     if (m_mapper == null || m_reducer == null || m_source == null)
@@ -121,63 +472,430 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
     assert m_mapper != null;
     assert m_reducer != null;
     assert m_source != null;
-    Collector<K,V> temp_coll = new Collector<K,V>();
+    if (m_managerMapper.isAdaptive() && !m_managerMapper.isWorthParallelizing(sourceSize()))
+      return runSequentially();
+    PartitionedCollector<K,V> partitions = null;
+    SpillingCollector<K,V> runs = null;
+    PipelinedShuffle<K,V> pipeline = null;
+    DictionaryShuffle<K,V> dictionary = null;
+    OutCollector<K,V> temp_coll = null;
+    SortedShuffle<K,V> sorted = null;
+    if (m_keyOrder != null)
+      sorted = new SortedShuffle<K,V>(m_keyOrder, m_grouping, m_valueOrder);
+    if (m_spillThreshold > 0)
+    {
+      runs = new SpillingCollector<K,V>(m_spillThreshold, null, sorted);
+      runs.setSerdes(m_keySerde, m_valueSerde);
+      temp_coll = runs;
+    }
+    else if (m_pipelined)
+    {
+      if (m_managerMapper == m_managerReducer)
+        throw new IllegalStateException("A pipelined shuffle needs a reduce manager distinct from the map manager");
+      pipeline = new PipelinedShuffle<K,V>(m_partitioner, m_numPartitions, getBatchCombiner(), sorted, m_managerReducer);
+      temp_coll = pipeline;
+    }
+    else if (m_keyDictionary && sorted == null)
+    {
+      dictionary = new DictionaryShuffle<K,V>(m_numPartitions);
+      temp_coll = dictionary;
+    }
+    else if (m_offHeapKeys != null)
+    {
+      partitions = new PartitionedCollector<K,V>(m_partitioner, m_numPartitions, m_offHeapKeys, m_offHeapValues);
+      temp_coll = partitions;
+    }
+    else
+    {
+      partitions = new PartitionedCollector<K,V>(m_partitioner, m_numPartitions);
+      temp_coll = partitions;
+    }
+
+    m_metrics = new WorkflowMetrics();
+    long start = System.nanoTime();
+
+    mapSplits(temp_coll);
+
+    //WAIT all mapper tasks to finish
+    m_managerMapper.waitThreads();
+
+    long end_of_map = System.nanoTime();
+    m_metrics.setMapNanos(end_of_map - start);
+    if (runs != null)
+    {
+      m_metrics.setMapOutputTuples(runs.getNumTuples());
+      m_metrics.setPeakIntermediateTuples(runs.getPeakSize());
+    }
+    else if (pipeline != null)
+    {
+      m_metrics.setMapOutputTuples(pipeline.getNumTuples());
+    }
+    else if (dictionary != null)
+    {
+      m_metrics.setMapOutputTuples(dictionary.count());
+      m_metrics.setPeakIntermediateTuples(dictionary.count());
+    }
+    else
+    {
+      m_metrics.setMapOutputTuples(partitions.count());
+      m_metrics.setPeakIntermediateTuples(partitions.count());
+    }
+
+    InCollector<K,V> results = null;
+    OutCollector<K,V> out = null;
+    if (m_offHeapKeys != null)
+    {
+      OffHeapCollector<K,V> c = new OffHeapCollector<K,V>(m_offHeapKeys, m_offHeapValues);
+      results = c;
+      out = c;
+    }
+    else
+    {
+      Collector<K,V> c = new Collector<K,V>();
+      results = c;
+      out = c;
+    }
+
+    m_forkJoin = null;
+    if (m_forkJoinParallelism > 0 && runs == null)
+      m_forkJoin = new ForkJoinReduce<K,V>(m_reducer, m_forkJoinParallelism, m_metrics.getReduceTaskNanos());
+    if (runs != null)
+      reduceRuns(runs, out);
+    else if (pipeline != null)
+      reducePipeline(pipeline, out);
+    else if (dictionary != null)
+      reduceDictionary(dictionary, out);
+    else if (sorted != null)
+      reduceSortedPartitions(partitions, sorted, out);
+    else
+      reducePartitions(partitions, out);
+    m_metrics.setShuffleNanos(System.nanoTime() - end_of_map);
+    if (m_forkJoin != null)
+    {
+      m_forkJoin.run(out);
+      m_forkJoin = null;
+    }
+
+    //WAIT all reduce tasks to finish
+    m_managerReducer.waitThreads();
+
+    long end = System.nanoTime();
+    m_metrics.setReduceNanos(end - end_of_map);
+    m_metrics.setTotalNanos(end - start);
+    m_metrics.setReduceOutputTuples(results.count());
+    m_managerMapper.recordWork(m_metrics.getMapInputTuples(),
+        m_metrics.getMapTaskNanos().getSum() + m_metrics.getReduceTaskNanos().getSum());
+    return results;
+  }
+
+  /**
+   * Runs the job in the calling thread, with a {@link SequentialWorkflow}
+   * set up like this workflow. This is what happens when an adaptive
+   * manager finds the source too small to be worth dividing.
+   * @return An InCollector containing all output tuples
+   */
+  private InCollector<K,V> runSequentially()
+  {
+    SequentialWorkflow<K,V> w = new SequentialWorkflow<K,V>(m_mapper, m_reducer, m_source);
+    w.setCombiner(m_combiner);
+    w.setSpillThreshold(m_spillThreshold);
+    w.setSerdes(m_keySerde, m_valueSerde);
+    w.setOffHeapSerdes(m_offHeapKeys, m_offHeapValues);
+    w.setKeyComparator(m_keyOrder);
+    w.setGroupingComparator(m_grouping);
+    w.setValueComparator(m_valueOrder);
+    InCollector<K,V> out = w.run();
+    m_metrics = w.getMetrics();
+    m_totalTuples += w.getTotalTuples();
+    m_maxTuples = Math.max(m_maxTuples, w.getMaxTuples());
+    m_managerMapper.recordWork(m_metrics.getMapInputTuples(), m_metrics.getTotalNanos());
+    return out;
+  }
+
+  /**
+   * Returns the measurements taken during the last run
+   * @return The metrics, empty if the job hasn't executed yet
+   */
+  public WorkflowMetrics getMetrics()
+  {
+    return m_metrics;
+  }
+
+  /**
+   * Divides the source into splits, and submits a mapper task for each
+   * split. A {@link SplittableCollector} divides itself; any other source
+   * is read here and cut into splits with the same number of tuples.
+   * @param temp_coll The collector receiving the map output
+   */
+  private void mapSplits(OutCollector<K,V> temp_coll)
+  {
+    if (m_source instanceof SplittableCollector<?,?>)
+    {
+      List<InCollector<K,V>> splits = ((SplittableCollector<K,V>) m_source).getSplits(m_numSplits);
+      for (InCollector<K,V> split : splits)
+      {
+        if (m_managerMapper.hasFailed())
+          break;
+
+        //Task for all mappers
+        submitMap(split, temp_coll);
+      }
+      return;
+    }
+    int count = m_source.count();
+    int split_size = DEFAULT_SPLIT_SIZE;
+    if (count >= 0)
+      split_size = Math.max(1, (count + m_numSplits - 1) / m_numSplits);
     m_source.rewind();
+    Collector<K,V> split = new Collector<K,V>();
+    while (m_source.hasNext() && !m_managerMapper.hasFailed())
+    {
+      split.toList().add(m_source.next());
+      if (split.count() >= split_size)
+      {
+        //Task for all mappers
+        submitMap(split, temp_coll);
+        split = new Collector<K,V>();
+      }
+    }
+    if (split.count() > 0)
+      submitMap(split, temp_coll);
+  }
+
+  /**
+   * Submits the mapper task of a split
+   * @param split The tuples of the split
+   * @param temp_coll The collector receiving the map output
+   */
+  private void submitMap(InCollector<K,V> split, OutCollector<K,V> temp_coll)
+  {
+    MapTask<K,V> task = new MapTask<K,V>(split, temp_coll, m_mapper, m_combiner);
+    task.metrics = m_metrics;
+    m_managerMapper.submit(task, m_metrics.getMapTaskNanos(), m_metrics.getQueueWaitNanos());
+  }
 
-    long timeBeforeMap = new Date().getTime();
+  /**
+   * Groups each partition of the map output in a task of its own, and
+   * submits the reducers of a partition as soon as it is grouped
+   * @param temp_coll The map output
+   * @param out The collector of the final results
+   */
+  private void reducePartitions(PartitionedCollector<K,V> temp_coll, OutCollector<K,V> out)
+  {
+    //Task for all partitions: the mapper threads are idle by now
+    int num_partitions = temp_coll.getNumPartitions();
+    BlockingQueue<Map<K,Collector<K,V>>> shuffled = 
+        new LinkedBlockingQueue<Map<K,Collector<K,V>>>();
+    for (int i = 0; i < num_partitions; i++)
+    {
+      final ShuffleTask<K,V> task = new ShuffleTask<K,V>(temp_coll, i, shuffled);
+      m_managerMapper.submit(task, new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          task.publish();
+        }
+      }, null, m_metrics.getQueueWaitNanos());
+    }
 
-    while (m_source.hasNext())
+    //Reducers of a partition start as soon as it is grouped
+    for (int i = 0; i < num_partitions; i++)
     {
-      Tuple<K,V> t = m_source.next();
+      Map<K,Collector<K,V>> shuffle = takePartition(shuffled);
+      for (Map.Entry<K,Collector<K,V>> entry : shuffle.entrySet())
+      {
+        reduceGroup(out, entry.getKey(), entry.getValue());
+      }
+    }
+    //Rethrow the exception of a failed partition, if any
+    m_managerMapper.waitThreads();
+  }
 
-      //Thread for all mappers
-      Thread MThread = m_managerMapper.getThread(t, temp_coll, m_mapper);
-      MThread.start();
+  /**
+   * Sorts each partition of the map output in a task of its own, then
+   * merges the sorted partitions and submits the reducer of each group
+   * in key order
+   * @param temp_coll The map output
+   * @param sorted The sorted shuffle
+   * @param out The collector of the final results
+   */
+  private void reduceSortedPartitions(final PartitionedCollector<K,V> temp_coll, final SortedShuffle<K,V> sorted, OutCollector<K,V> out)
+  {
+    for (int i = 0; i < temp_coll.getNumPartitions(); i++)
+    {
+      final int partition = i;
+      m_managerMapper.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          sorted.sort(temp_coll.getPartition(partition).toList());
+        }
+      }, null, m_metrics.getQueueWaitNanos());
     }
-    //WAIT all mapper theads to finish
     m_managerMapper.waitThreads();
+    List<Iterator<Tuple<K,V>>> sequences = new ArrayList<Iterator<Tuple<K,V>>>();
+    for (int i = 0; i < temp_coll.getNumPartitions(); i++)
+    {
+      sequences.add(temp_coll.getPartition(i).toList().iterator());
+    }
+    Iterator<Tuple<K,Collector<K,V>>> groups = sorted.groups(sequences);
+    while (groups.hasNext() && !m_managerReducer.hasFailed())
+    {
+      Tuple<K,Collector<K,V>> group = groups.next();
+      reduceGroup(out, group.getKey(), group.getValue());
+    }
+  }
 
-    long timeAfterMap = new Date().getTime();
-    long timePhaseMap = timeAfterMap - timeBeforeMap;
-    System.out.println("--------------------------------------------------------");
-    System.out.println("------------------Time of every Phases------------------");
-    System.out.println("--------------------------------------------------------");
-    System.out.println("                  Map : " + timePhaseMap + " Milliseconds");
+  /**
+   * Merges the runs spilled by the map phase, and submits the reducer
+   * of each group as soon as it is read back. Since submitting a task
+   * blocks when the queue of the reducers is full, only a bounded number
+   * of groups are in memory at any time.
+   * @param temp_coll The map output
+   * @param out The collector of the final results
+   */
+  private void reduceRuns(SpillingCollector<K,V> temp_coll, OutCollector<K,V> out)
+  {
+    Iterator<Tuple<K,Collector<K,V>>> groups = temp_coll.groups();
+    while (groups.hasNext() && !m_managerReducer.hasFailed())
+    {
+      Tuple<K,Collector<K,V>> group = groups.next();
+      reduceGroup(out, group.getKey(), group.getValue());
+    }
+  }
 
-    Map<K,Collector<K,V>> shuffle = temp_coll.subCollectors();
-    Set<K> keys = shuffle.keySet();
-    Collector<K,V> out = new Collector<K,V>();
+  /**
+   * Waits for the last batches of the pipelined shuffle, and submits
+   * the reducer of each group
+   * @param temp_coll The map output
+   * @param out The collector of the final results
+   */
+  private void reducePipeline(PipelinedShuffle<K,V> temp_coll, OutCollector<K,V> out)
+  {
+    temp_coll.flush();
+    m_managerReducer.waitThreads();
+    m_metrics.setPeakIntermediateTuples(temp_coll.getNumKept());
+    Iterator<Tuple<K,Collector<K,V>>> groups = temp_coll.groups();
+    while (groups.hasNext() && !m_managerReducer.hasFailed())
+    {
+      Tuple<K,Collector<K,V>> group = groups.next();
+      reduceGroup(out, group.getKey(), group.getValue());
+    }
+  }
 
-    long timeBeforeReduce = new Date().getTime();
-    for (K key : keys)
+  /**
+   * Groups each partition of the dictionary-encoded map output in a
+   * task of its own, then submits the reducers of the groups
+   * @param temp_coll The map output
+   * @param out The collector of the final results
+   */
+  private void reduceDictionary(final DictionaryShuffle<K,V> temp_coll, OutCollector<K,V> out)
+  {
+    int num_partitions = temp_coll.getNumPartitions();
+    final List<List<Tuple<K,Collector<K,V>>>> grouped = new ArrayList<List<Tuple<K,Collector<K,V>>>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
     {
-      Collector<K,V> s_source = shuffle.get(key);
-      int num_tuples = s_source.count();
-      m_totalTuples += num_tuples;
-      m_maxTuples = Math.max(m_maxTuples, num_tuples);
+      grouped.add(null);
+    }
+    for (int i = 0; i < num_partitions; i++)
+    {
+      final int partition = i;
+      m_managerMapper.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          List<Tuple<K,Collector<K,V>>> groups = temp_coll.group(partition);
+          synchronized (grouped)
+          {
+            grouped.set(partition, groups);
+          }
+        }
+      }, null, m_metrics.getQueueWaitNanos());
+    }
+    m_managerMapper.waitThreads();
+    for (List<Tuple<K,Collector<K,V>>> groups : grouped)
+    {
+      for (Tuple<K,Collector<K,V>> group : groups)
+      {
+        if (m_managerReducer.hasFailed())
+          return;
+        reduceGroup(out, group.getKey(), group.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the reducer applied to the batches of the pipelined
+   * shuffle: the partial reduction of a {@link DecomposableReducer},
+   * or else the combiner of the job
+   * @return The reducer, or null if the batches are not combined
+   */
+  private Reducer<K,V> getBatchCombiner()
+  {
+    if (!(m_reducer instanceof DecomposableReducer<?,?>))
+      return m_combiner;
+    final DecomposableReducer<K,V> reducer = (DecomposableReducer<K,V>) m_reducer;
+    return new Reducer<K,V>()
+    {
+      @Override
+      public void reduce(OutCollector<K,V> out, K key, InCollector<K,V> in)
+      {
+        reducer.combine(out, key, in);
+      }
+    };
+  }
 
-      //Tread for all Reducers
-      Thread RThread = m_managerReducer.getThread(out, key, s_source, m_reducer);
-      RThread.start();
+  /**
+   * Submits the reducer of a group of tuples, or keeps the group for
+   * later in fork/join mode
+   * @param out The collector of the final results
+   * @param key The key of the group
+   * @param s_source The tuples of the group
+   */
+  private void reduceGroup(OutCollector<K,V> out, K key, Collector<K,V> s_source)
+  {
+    int num_tuples = s_source.count();
+    m_totalTuples += num_tuples;
+    m_maxTuples = Math.max(m_maxTuples, num_tuples);
+    m_metrics.addGroup(num_tuples);
+    if (m_forkJoin != null)
+    {
+      // Reduced once all the groups are known
+      m_forkJoin.add(key, s_source);
+      return;
     }
 
-    //WAIT all reduce theads to finish
-    m_managerReducer.waitThreads();
+    //Task for all Reducers
+    m_managerReducer.submit(new ReduceTask<K,V>(out, key, s_source, m_reducer),
+        m_metrics.getReduceTaskNanos(), m_metrics.getQueueWaitNanos());
+  }
 
-    long timeAfterReduce = new Date().getTime();
-    long timePhaseReduce = timeAfterReduce - timeBeforeReduce;
-    long timePhaseTotal = timePhaseMap + timePhaseReduce;
-    double timeSeconds = (double) timePhaseTotal/1000;
-    int timeMinutes = (int) (timePhaseTotal/1000)/60;
-    double timeSecMins = ( (double)timePhaseTotal/1000) - ( (double)timeMinutes * 60);
-
-    System.out.println("               Reduce : " + timePhaseReduce + " Milliseconds");
-    System.out.println("--------------------------------------------------------");
-    System.out.println("                Total : " + timePhaseTotal + " Milliseconds");
-    System.out.println("        Total Seconds : " + timeSeconds);
-    System.out.println("        Total Minutes : " + timeMinutes + "." + timeSecMins);
-    System.out.println("--------------------------------------------------------");
-    return out;
+  /**
+   * Waits for the next partition to be grouped by key. Every shuffle
+   * task puts a result in the queue, even when it fails or when the
+   * manager skips it after another task has failed; the failure is
+   * then rethrown instead of reducing the partitions left.
+   * @param shuffled The queue where grouped partitions are put
+   * @return The tuples of the partition, grouped by key
+   * @throws MapReduceException If a shuffle task has failed
+   */
+  private Map<K,Collector<K,V>> takePartition(BlockingQueue<Map<K,Collector<K,V>>> shuffled)
+  {
+    try
+    {
+      Map<K,Collector<K,V>> partition = shuffled.take();
+      if (m_managerMapper.hasFailed())
+        m_managerMapper.waitThreads();
+      return partition;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new MapReduceException("Interrupted during the shuffle", e);
+    }
   }
 
   /**
@@ -203,4 +921,53 @@ public class ParallelWorkflow<K,V> implements Workflow<K,V>
   {
     return m_totalTuples;
   }
-}
\ No newline at end of file
+}
+
+/**
+ * Class who encapsulates the grouping by key of a partition of the
+ * map output in a task
+ * @author Sylvain Hallé
+ */
+class ShuffleTask<K,V> implements Runnable
+{
+  private PartitionedCollector<K,V> m_partitions = null;
+  private int m_partition = 0;
+  private BlockingQueue<Map<K,Collector<K,V>>> m_shuffled = null;
+
+  /**
+   * The grouped partition, left empty if the grouping fails or if
+   * the task is skipped
+   */
+  private Map<K,Collector<K,V>> m_groups = Collections.emptyMap();
+
+  /**
+   * Create an instance of ShuffleTask
+   * @param partitions The map output
+   * @param partition The index of the partition to group
+   * @param shuffled The queue where to put the grouped partition
+   */
+  ShuffleTask(PartitionedCollector<K,V> partitions, int partition, BlockingQueue<Map<K,Collector<K,V>>> shuffled)
+  {
+    m_partitions = partitions;
+    m_partition = partition;
+    m_shuffled = shuffled;
+  }
+
+  /**
+   * Groups the partition
+   */
+  public void run()
+  {
+    m_groups = m_partitions.getPartition(m_partition).subCollectors();
+  }
+
+  /**
+   * Puts the grouped partition in the queue. This must be called
+   * even if the task fails or is not run at all, so that no one waits
+   * for the partition forever: the queue then receives an empty map.
+   */
+  public void publish()
+  {
+    m_shuffled.add(m_groups);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Output collector that routes each tuple to one of several
+ * {@link Collector}s, called partitions, using a {@link Partitioner}.
+ * Since all the tuples with the same key are in the same partition,
+ * the partitions can then be grouped by key independently (and in
+ * parallel) by calling {@link Collector#subCollectors()} on each of them.
+ * Moreover, tuples sent to different partitions are never written
+ * to the same collector, which reduces the contention between the
+ * mappers.
+ * <p>
+ * When serdes are given, each partition is kept serialized in an
+ * {@link OffHeapCollector} until it is first asked for with
+ * {@link #getPartition(int)}: it is then decoded into a
+ * {@link Collector}, and its arenas are released.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class PartitionedCollector<K,V> implements BulkCollector<K,V>
+{
+  private List<Collector<K,V>> m_partitions = null;
+  private Partitioner<K> m_partitioner = null;
+
+  /**
+   * The serialized partitions, or null if the partitions are kept on
+   * the heap. A partition is set to null once it is decoded.
+   */
+  private List<OffHeapCollector<K,V>> m_serialized = null;
+
+  /**
+   * Create a PartitionedCollector
+   * @param p The {@link Partitioner} used to route the tuples
+   * @param num_partitions The number of partitions
+   */
+  public PartitionedCollector(Partitioner<K> p, int num_partitions)
+  {
+    super();
+    m_partitioner = p;
+    m_partitions = new ArrayList<Collector<K,V>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      m_partitions.add(new Collector<K,V>());
+    }
+  }
+
+  /**
+   * Create a PartitionedCollector whose partitions are kept outside
+   * of the heap until they are read
+   * @param p The {@link Partitioner} used to route the tuples
+   * @param num_partitions The number of partitions
+   * @param keys The serde of the keys
+   * @param values The serde of the values
+   */
+  public PartitionedCollector(Partitioner<K> p, int num_partitions, Serde<K> keys, Serde<V> values)
+  {
+    this(p, num_partitions);
+    m_serialized = new ArrayList<OffHeapCollector<K,V>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      m_partitions.set(i, null);
+      m_serialized.add(new OffHeapCollector<K,V>(keys, values));
+    }
+  }
+
+  /**
+   * Returns the number of partitions
+   * @return The number of partitions
+   */
+  public int getNumPartitions()
+  {
+    return m_partitions.size();
+  }
+
+  /**
+   * Returns one of the partitions. A serialized partition is decoded
+   * the first time it is asked for; the partitions can be decoded by
+   * different threads at the same time.
+   * @param i The index of the partition
+   * @return The {@link Collector} containing the tuples of the partition
+   */
+  public Collector<K,V> getPartition(int i)
+  {
+    OffHeapCollector<K,V> serialized = null;
+    synchronized (m_partitions)
+    {
+      Collector<K,V> c = m_partitions.get(i);
+      if (c != null)
+        return c;
+      serialized = m_serialized.get(i);
+      m_serialized.set(i, null);
+    }
+    Collector<K,V> c = serialized.decode();
+    synchronized (m_partitions)
+    {
+      m_partitions.set(i, c);
+    }
+    return c;
+  }
+
+  /**
+   * Count the number of tuples in all the partitions
+   * @return The number of tuples
+   */
+  public int count()
+  {
+    int n = 0;
+    synchronized (m_partitions)
+    {
+      for (int i = 0; i < m_partitions.size(); i++)
+      {
+        if (m_partitions.get(i) != null)
+          n += m_partitions.get(i).count();
+        else if (m_serialized.get(i) != null)
+          n += m_serialized.get(i).count();
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    int i = m_partitioner.getPartition(t.getKey(), m_partitions.size());
+    if (m_serialized != null)
+      m_serialized.get(i).collect(t);
+    else
+      m_partitions.get(i).collect(t);
+  }
+
+  /**
+   * Add a collection of tuples to the partitions. The tuples are first
+   * sorted out by partition, so that each partition is written only
+   * once.
+   * @param list A collection of {@link Tuple}
+   */
+  @Override
+  public void addAll(Collection<Tuple<K,V>> list)
+  {
+    int num_partitions = m_partitions.size();
+    List<List<Tuple<K,V>>> parts = new ArrayList<List<Tuple<K,V>>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      parts.add(null);
+    }
+    for (Tuple<K,V> t : list)
+    {
+      int i = m_partitioner.getPartition(t.getKey(), num_partitions);
+      List<Tuple<K,V>> part = parts.get(i);
+      if (part == null)
+      {
+        part = new ArrayList<Tuple<K,V>>();
+        parts.set(i, part);
+      }
+      part.add(t);
+    }
+    for (int i = 0; i < num_partitions; i++)
+    {
+      List<Tuple<K,V>> part = parts.get(i);
+      if (part == null)
+        continue;
+      if (m_serialized != null)
+        m_serialized.get(i).addAll(part);
+      else
+        m_partitions.get(i).addAll(part);
+    }
+  }
+
+  @Override
+  public void rewind()
+  {
+    for (Collector<K,V> c : m_partitions)
+    {
+      if (c != null)
+        c.rewind();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return m_partitions.toString();
+  }
+}
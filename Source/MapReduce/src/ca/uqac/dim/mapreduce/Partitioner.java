@@ -0,0 +1,40 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Interface declaration of the partitioning of the tuples produced
+ * by the map phase. Each output tuple is sent to a partition
+ * according to its key; all the tuples with the same key must end
+ * up in the same partition, as each partition is then grouped by
+ * key independently of the others.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface Partitioner<K>
+{
+	/**
+	 * Partition function
+	 * @param key The key of the tuple to send to a partition
+	 * @param num_partitions The number of partitions
+	 * @return The index of the partition, between 0 and
+	 *   <tt>num_partitions</tt> - 1
+	 */
+	public int getPartition(K key, int num_partitions);
+}
@@ -0,0 +1,357 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Output collector of the map phase that shuffles the tuples while
+ * the mappers are still running. Each partition fills a buffer; when
+ * the buffer is full, it is handed as a batch to a task of a
+ * {@link ResourceManager}, which does right away the part of the
+ * shuffle that does not need the rest of the map output:
+ * <ul>
+ * <li>if a combiner is given, the batch is grouped by key and replaced
+ * by the output of the combiner</li>
+ * <li>with a {@link SortedShuffle}, the batch is sorted, and kept as
+ * a run to merge with the others at the end</li>
+ * <li>otherwise, the batch is grouped by key, and its groups are
+ * appended to those of its partition</li>
+ * </ul>
+ * Once the map phase is over, {@link #flush()} hands over the tuples
+ * left in the buffers; when these last batches are processed, the
+ * groups enumerated by {@link #groups()} are ready for the reducers.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class PipelinedShuffle<K,V> implements BulkCollector<K,V>
+{
+  /**
+   * The number of tuples of a partition handed over in one batch
+   */
+  static final int BATCH_SIZE = 16 * 1024;
+
+  private final Partitioner<K> m_partitioner;
+  private final Reducer<K,V> m_combiner;
+  private final SortedShuffle<K,V> m_sorted;
+  private final ResourceManager<K,V> m_manager;
+  private final List<Partition> m_partitions;
+
+  /**
+   * The number of tuples received, and the number of tuples kept
+   * after the batches were combined
+   */
+  private long m_numTuples = 0;
+  private long m_numKept = 0;
+
+  /**
+   * Create a PipelinedShuffle
+   * @param p The {@link Partitioner} used to route the tuples
+   * @param num_partitions The number of partitions
+   * @param combiner The {@link Reducer} applied to the groups of each
+   *   batch, or null
+   * @param sorted The sorted shuffle, or null to group the tuples by
+   *   hashing them
+   * @param manager The manager running the batch tasks
+   */
+  PipelinedShuffle(Partitioner<K> p, int num_partitions, Reducer<K,V> combiner, SortedShuffle<K,V> sorted, ResourceManager<K,V> manager)
+  {
+    super();
+    m_partitioner = p;
+    m_combiner = combiner;
+    m_sorted = sorted;
+    m_manager = manager;
+    m_partitions = new ArrayList<Partition>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      m_partitions.add(new Partition());
+    }
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    int i = m_partitioner.getPartition(t.getKey(), m_partitions.size());
+    List<Tuple<K,V>> batch = m_partitions.get(i).append(t);
+    synchronized (this)
+    {
+      m_numTuples++;
+    }
+    if (batch != null)
+      submit(m_partitions.get(i), batch);
+  }
+
+  /**
+   * Add a collection of tuples to the partitions. The tuples are first
+   * sorted out by partition, so that each buffer is written only
+   * once.
+   * @param list A collection of {@link Tuple}
+   */
+  @Override
+  public void addAll(Collection<Tuple<K,V>> list)
+  {
+    int num_partitions = m_partitions.size();
+    List<List<Tuple<K,V>>> parts = new ArrayList<List<Tuple<K,V>>>(num_partitions);
+    for (int i = 0; i < num_partitions; i++)
+    {
+      parts.add(null);
+    }
+    for (Tuple<K,V> t : list)
+    {
+      int i = m_partitioner.getPartition(t.getKey(), num_partitions);
+      List<Tuple<K,V>> part = parts.get(i);
+      if (part == null)
+      {
+        part = new ArrayList<Tuple<K,V>>();
+        parts.set(i, part);
+      }
+      part.add(t);
+    }
+    synchronized (this)
+    {
+      m_numTuples += list.size();
+    }
+    for (int i = 0; i < num_partitions; i++)
+    {
+      List<Tuple<K,V>> part = parts.get(i);
+      if (part == null)
+        continue;
+      List<Tuple<K,V>> batch = m_partitions.get(i).appendAll(part);
+      if (batch != null)
+        submit(m_partitions.get(i), batch);
+    }
+  }
+
+  /**
+   * Hands over the tuples left in the buffers. This must be called once
+   * all the mappers are done; the groups are ready when the tasks of
+   * the manager are over.
+   */
+  public void flush()
+  {
+    for (Partition p : m_partitions)
+    {
+      List<Tuple<K,V>> batch = p.take();
+      if (!batch.isEmpty())
+        submit(p, batch);
+    }
+  }
+
+  /**
+   * Returns the number of tuples received from the mappers
+   * @return The number of tuples
+   */
+  public synchronized long getNumTuples()
+  {
+    return m_numTuples;
+  }
+
+  /**
+   * Returns the number of tuples kept for the reducers, which is lower
+   * than the number of tuples received if batches were combined
+   * @return The number of tuples
+   */
+  public synchronized long getNumKept()
+  {
+    return m_numKept;
+  }
+
+  /**
+   * Enumerates the groups of tuples for the reducers. With a sorted
+   * shuffle, the runs of all the partitions are merged, and the groups
+   * come in key order.
+   * @return An iterator over the groups; each element is a tuple whose
+   *   key is the key of a group, and whose value contains its tuples
+   */
+  public Iterator<Tuple<K,Collector<K,V>>> groups()
+  {
+    if (m_sorted != null)
+    {
+      List<Iterator<Tuple<K,V>>> sequences = new ArrayList<Iterator<Tuple<K,V>>>();
+      for (Partition p : m_partitions)
+      {
+        for (List<Tuple<K,V>> run : p.m_runs)
+        {
+          sequences.add(run.iterator());
+        }
+      }
+      return m_sorted.groups(sequences);
+    }
+    return new GroupIterator();
+  }
+
+  @Override
+  public void rewind()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Submits the task processing a batch of a partition
+   * @param p The partition
+   * @param batch The tuples of the batch
+   */
+  private void submit(final Partition p, final List<Tuple<K,V>> batch)
+  {
+    m_manager.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        List<Tuple<K,V>> tuples = batch;
+        if (m_combiner != null)
+          tuples = combine(tuples);
+        if (m_sorted != null)
+        {
+          m_sorted.sort(tuples);
+          p.addRun(tuples);
+        }
+        else
+        {
+          p.addGroups(new Collector<K,V>(tuples).subCollectors());
+        }
+        synchronized (PipelinedShuffle.this)
+        {
+          m_numKept += tuples.size();
+        }
+      }
+    });
+  }
+
+  /**
+   * Groups a batch by key and sends each group to the combiner
+   * @param batch The tuples of the batch
+   * @return The tuples output by the combiner
+   */
+  private List<Tuple<K,V>> combine(List<Tuple<K,V>> batch)
+  {
+    Map<K,Collector<K,V>> groups = new Collector<K,V>(batch).subCollectors();
+    TaskBuffer<K,V> buffer = new TaskBuffer<K,V>();
+    for (Map.Entry<K,Collector<K,V>> entry : groups.entrySet())
+    {
+      m_combiner.reduce(buffer, entry.getKey(), entry.getValue());
+    }
+    List<Tuple<K,V>> out = new ArrayList<Tuple<K,V>>(buffer.size());
+    buffer.flushTo(new Collector<K,V>(out));
+    return out;
+  }
+
+  /**
+   * The buffer of a partition, and what its batches have become
+   */
+  private class Partition
+  {
+    private List<Tuple<K,V>> m_buffer = new ArrayList<Tuple<K,V>>();
+    private final Map<K,Collector<K,V>> m_groups = new HashMap<K,Collector<K,V>>();
+    private final List<List<Tuple<K,V>>> m_runs = new ArrayList<List<Tuple<K,V>>>();
+
+    /**
+     * Adds a tuple to the buffer
+     * @param t The tuple
+     * @return The content of the buffer if it is full, null otherwise
+     */
+    synchronized List<Tuple<K,V>> append(Tuple<K,V> t)
+    {
+      m_buffer.add(t);
+      return m_buffer.size() >= BATCH_SIZE ? take() : null;
+    }
+
+    /**
+     * Adds tuples to the buffer
+     * @param tuples The tuples
+     * @return The content of the buffer if it is full, null otherwise
+     */
+    synchronized List<Tuple<K,V>> appendAll(List<Tuple<K,V>> tuples)
+    {
+      m_buffer.addAll(tuples);
+      return m_buffer.size() >= BATCH_SIZE ? take() : null;
+    }
+
+    /**
+     * Empties the buffer
+     * @return The tuples that were in the buffer
+     */
+    synchronized List<Tuple<K,V>> take()
+    {
+      List<Tuple<K,V>> batch = m_buffer;
+      m_buffer = new ArrayList<Tuple<K,V>>();
+      return batch;
+    }
+
+    synchronized void addRun(List<Tuple<K,V>> run)
+    {
+      m_runs.add(run);
+    }
+
+    synchronized void addGroups(Map<K,Collector<K,V>> groups)
+    {
+      for (Map.Entry<K,Collector<K,V>> entry : groups.entrySet())
+      {
+        Collector<K,V> group = m_groups.get(entry.getKey());
+        if (group == null)
+          m_groups.put(entry.getKey(), entry.getValue());
+        else
+          group.toList().addAll(entry.getValue().toList());
+      }
+    }
+  }
+
+  /**
+   * Enumerates the groups of all the partitions, one partition after
+   * the other
+   */
+  private class GroupIterator implements Iterator<Tuple<K,Collector<K,V>>>
+  {
+    private int m_partition = 0;
+    private Iterator<Map.Entry<K,Collector<K,V>>> m_entries = null;
+
+    @Override
+    public boolean hasNext()
+    {
+      while (m_entries == null || !m_entries.hasNext())
+      {
+        if (m_partition >= m_partitions.size())
+          return false;
+        m_entries = m_partitions.get(m_partition++).m_groups.entrySet().iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public Tuple<K,Collector<K,V>> next()
+    {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Map.Entry<K,Collector<K,V>> entry = m_entries.next();
+      return new Tuple<K,Collector<K,V>>(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The part of {@link IntCollector} and {@link LongCollector} that does
+ * not depend on the type of the tuples: the range of the arrays of
+ * primitives that holds the tuples, its enumeration, and its division
+ * into views.
+ * <p>
+ * A collector can be a <em>view</em> over a range of another
+ * collector's arrays, such as a split of a source or a group of a
+ * sorted map output; the arrays are then not copied. They are copied
+ * the first time the view is written, so that writing to a view never
+ * changes the collector it comes from, nor the other views.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ abstract class PrimitiveCollector<C extends PrimitiveCollector<C>>
+{
+  /**
+   * The range of the arrays holding the tuples of this collector
+   */
+  protected int m_from = 0;
+  protected int m_to = 0;
+
+  /**
+   * The position of the next tuple to enumerate
+   */
+  protected int m_position = 0;
+
+  /**
+   * Whether the arrays belong to another collector
+   */
+  private boolean m_shared = false;
+
+  /**
+   * Create a collector over a range of arrays
+   * @param from The index of the first tuple
+   * @param to The index following the last tuple
+   * @param shared true if the arrays belong to another collector
+   */
+  PrimitiveCollector(int from, int to, boolean shared)
+  {
+    super();
+    m_from = from;
+    m_to = to;
+    m_position = from;
+    m_shared = shared;
+  }
+
+  public synchronized int count()
+  {
+    return m_to - m_from;
+  }
+
+  public boolean hasNext()
+  {
+    return m_position < m_to;
+  }
+
+  public void rewind()
+  {
+    m_position = m_from;
+  }
+
+  /**
+   * Divides the collector into splits containing the same number of
+   * tuples (except for the last one). The splits are views over the
+   * tuples of this collector.
+   * @param num_splits The number of splits
+   * @return The list of splits
+   */
+  public List<C> getSplits(int num_splits)
+  {
+    List<C> splits = new ArrayList<C>();
+    int size = m_to - m_from;
+    int split_size = Math.max(1, (size + num_splits - 1) / Math.max(1, num_splits));
+    for (int start = m_from; start < m_to; start += split_size)
+    {
+      splits.add(view(start, Math.min(m_to, start + split_size)));
+    }
+    return splits;
+  }
+
+  /**
+   * Finds the end of the group of tuples starting at some index, once
+   * the collector has been sorted
+   * @param from The index of the first tuple of the group
+   * @return The index following the last tuple of the group
+   */
+  /*package*/ int endOfGroup(int from)
+  {
+    int i = from + 1;
+    while (i < m_to && sameKey(from, i))
+      i++;
+    return i;
+  }
+
+  /**
+   * Returns a view over a range of the tuples of this collector
+   * @param from The index of the first tuple
+   * @param to The index following the last tuple
+   * @return The view
+   */
+  /*package*/ C range(int from, int to)
+  {
+    return view(from, to);
+  }
+
+  /**
+   * Returns the index of the first tuple of this collector
+   * @return The index
+   */
+  /*package*/ int start()
+  {
+    return m_from;
+  }
+
+  /**
+   * Returns the index following the last tuple of this collector
+   * @return The index
+   */
+  /*package*/ int end()
+  {
+    return m_to;
+  }
+
+  /**
+   * Moves to the next tuple of the enumeration
+   * @return The index of the tuple
+   * @throws NoSuchElementException If there is no more tuple
+   */
+  protected int nextIndex()
+  {
+    if (m_position >= m_to)
+      throw new NoSuchElementException();
+    return m_position++;
+  }
+
+  /**
+   * Prepares the arrays to be written: copies them if they belong to
+   * another collector, and grows them if they cannot hold some more
+   * tuples. The tuples then start at index 0 of the arrays.
+   * @param n The number of tuples to be added
+   */
+  protected void prepareWrite(int n)
+  {
+    if (!m_shared && m_to + n <= capacity())
+      return;
+    int size = m_to - m_from;
+    reallocate(Math.max(16, Math.max(2 * size, size + n)));
+    m_position -= m_from;
+    m_from = 0;
+    m_to = size;
+    m_shared = false;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder out = new StringBuilder("[");
+    for (int i = m_from; i < m_to; i++)
+    {
+      if (i > m_from)
+        out.append(", ");
+      out.append("〈");
+      appendTuple(out, i);
+      out.append("〉");
+    }
+    return out.append("]").toString();
+  }
+
+  /**
+   * Add the tuples of another collector to this one
+   * @param c The collector
+   */
+  public abstract void addAll(C c);
+
+  /**
+   * Sorts the tuples by key (and by value for the same key), so that
+   * the tuples with the same key are contiguous
+   */
+  /*package*/ abstract void sort();
+
+  /**
+   * Returns the number of tuples the arrays can hold
+   * @return The number of tuples
+   */
+  protected abstract int capacity();
+
+  /**
+   * Replaces the arrays by new ones, holding the tuples of this
+   * collector from index 0
+   * @param capacity The number of tuples the new arrays can hold
+   */
+  protected abstract void reallocate(int capacity);
+
+  /**
+   * Creates a view over a range of the arrays
+   * @param from The index of the first tuple
+   * @param to The index following the last tuple
+   * @return The view
+   */
+  protected abstract C view(int from, int to);
+
+  /**
+   * Tells whether two tuples have the same key
+   * @param i The index of the first tuple
+   * @param j The index of the second tuple
+   * @return true if the keys are equal
+   */
+  protected abstract boolean sameKey(int i, int j);
+
+  /**
+   * Writes the key and the value of a tuple, separated by a comma
+   * @param out Where to write
+   * @param i The index of the tuple
+   */
+  protected abstract void appendTuple(StringBuilder out, int i);
+}
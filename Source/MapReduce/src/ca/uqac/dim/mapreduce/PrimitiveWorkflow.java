@@ -0,0 +1,235 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.List;
+
+/**
+ * The part of {@link IntWorkflow} and {@link LongWorkflow} that does
+ * not depend on the type of the tuples: the map phase, the sort of the
+ * map output, and the reduce phase, in the calling thread or on the
+ * workers of a {@link ResourceManager}.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ abstract class PrimitiveWorkflow<C extends PrimitiveCollector<C>>
+{
+  private ResourceManager<?,?> m_manager = null;
+  private int m_numSplits = 2 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The total number of tuples processed by the reducers
+   */
+  protected long m_totalTuples = 0;
+
+  /**
+   * The maximum number of tuples that a single reducer will process
+   */
+  protected long m_maxTuples = 0;
+
+  /**
+   * Sets the {@link ResourceManager} whose worker threads run the map
+   * and reduce tasks. By default, there is none, and the job runs in
+   * the calling thread.
+   * @param rm The manager, or null to run the job in the calling thread
+   */
+  public void setManager(ResourceManager<?,?> rm)
+  {
+    m_manager = rm;
+  }
+
+  /**
+   * Sets the number of map tasks, and the number of reduce tasks, when
+   * the job runs in parallel
+   * @param n The number of tasks
+   */
+  public void setNumSplits(int n)
+  {
+    m_numSplits = Math.max(1, n);
+  }
+
+  /**
+   * Runs the job
+   * @return The collector of all output tuples, or null if the
+   *   mapper, the reducer or the source is missing
+   */
+  /*package*/ C runJob()
+  {
+    if (!isReady())
+      return null;
+    C temp_coll = newCollector();
+    C source = splittableSource();
+    if (m_manager != null && source != null)
+      mapParallel(source, temp_coll);
+    else
+      mapSource(temp_coll);
+    temp_coll.sort();
+    C out = newCollector();
+    if (m_manager != null)
+      reduceParallel(temp_coll, out);
+    else
+    {
+      int start = temp_coll.start();
+      while (start < temp_coll.end())
+      {
+        int end = temp_coll.endOfGroup(start);
+        countGroup(end - start);
+        reduce(temp_coll.range(start, end), out);
+        start = end;
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Maps each split of the source in a task of its own
+   * @param source The source
+   * @param temp_coll The collector receiving the map output
+   */
+  private void mapParallel(C source, final C temp_coll)
+  {
+    List<C> splits = source.getSplits(m_numSplits);
+    for (final C split : splits)
+    {
+      m_manager.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          C local = newCollector();
+          mapSplit(split, local);
+          temp_coll.addAll(local);
+        }
+      });
+    }
+    m_manager.waitThreads();
+  }
+
+  /**
+   * Divides the sorted map output into ranges of whole groups of about
+   * the same size, and reduces each range in a task of its own
+   * @param temp_coll The sorted map output
+   * @param out The collector of the final results
+   */
+  private void reduceParallel(C temp_coll, final C out)
+  {
+    int range_size = Math.max(1, temp_coll.count() / m_numSplits);
+    int start = temp_coll.start();
+    while (start < temp_coll.end())
+    {
+      int end = start;
+      while (end < temp_coll.end() && end - start < range_size)
+      {
+        int group_end = temp_coll.endOfGroup(end);
+        countGroup(group_end - end);
+        end = group_end;
+      }
+      final int from = start;
+      final int to = end;
+      final C groups = temp_coll.range(from, to);
+      m_manager.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          C local = newCollector();
+          int i = from;
+          while (i < to)
+          {
+            int j = groups.endOfGroup(i);
+            reduce(groups.range(i, j), local);
+            i = j;
+          }
+          out.addAll(local);
+        }
+      });
+      start = end;
+    }
+    m_manager.waitThreads();
+  }
+
+  /**
+   * Updates the statistics with the size of a group
+   * @param num_tuples The number of tuples in the group
+   */
+  private void countGroup(int num_tuples)
+  {
+    m_totalTuples += num_tuples;
+    m_maxTuples = Math.max(m_maxTuples, num_tuples);
+  }
+
+  /**
+   * Returns the maximum number of tuples processed by a single
+   * reducer in the process. This method returns 0 if the MapReduce
+   * job hasn't executed yet.
+   * @return The number of tuples
+   */
+  public long getMaxTuples()
+  {
+    return m_maxTuples;
+  }
+
+  /**
+   * Returns the total number of tuples processed by all reducers.
+   * This method returns 0 if the MapReduce job hasn't executed yet.
+   * @return The number of tuples
+   */
+  public long getTotalTuples()
+  {
+    return m_totalTuples;
+  }
+
+  /**
+   * Tells whether the mapper, the reducer and the source are all set
+   * @return true if the job can run
+   */
+  protected abstract boolean isReady();
+
+  /**
+   * Creates an empty collector
+   * @return The collector
+   */
+  protected abstract C newCollector();
+
+  /**
+   * Returns the source, if it can be divided into splits
+   * @return The source, or null if it cannot be divided
+   */
+  protected abstract C splittableSource();
+
+  /**
+   * Maps all the tuples of the source, in the calling thread
+   * @param out The collector receiving the map output
+   */
+  protected abstract void mapSource(C out);
+
+  /**
+   * Maps all the tuples of a split
+   * @param split The split
+   * @param out The collector receiving the map output
+   */
+  protected abstract void mapSplit(C split, C out);
+
+  /**
+   * Runs the reducer on a group of tuples with the same key
+   * @param group The group
+   * @param out The collector of the results
+   */
+  protected abstract void reduce(C group, C out);
+}
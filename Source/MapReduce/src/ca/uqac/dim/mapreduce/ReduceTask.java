@@ -0,0 +1,61 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+/**
+ * Class who encapsulates the processing of a reducer and his informations
+ * in a task
+ * @author Maxime Soucy-Boivin
+ */
+class ReduceTask<K,V> implements Runnable
+{
+  /**
+   * Informations needed to be transferred to the reducer
+   * For more information, see function submit
+   */
+  OutCollector<K,V> outThread = null;
+  K Thread_key = null;
+  Collector<K,V> Thread_s_source = null;
+  Reducer<K,V> Thread_m_reducer = null;
+
+  /**
+   * Create an instance of ReduceTask
+   * @param out The collector of the final results
+   * @param key The key to reduce
+   * @param s_source The collector of all results of the mapper phase
+   * @param m_reducer The {@link Reducer} to use in the reduce phase
+   */
+  ReduceTask(OutCollector<K,V> out, K key, Collector<K,V> s_source, Reducer<K,V> m_reducer) 
+  {
+    this.outThread = out;
+    this.Thread_key = key;
+    this.Thread_s_source = s_source;
+    this.Thread_m_reducer = m_reducer;
+  }
+
+  /**
+   * Function who start the execution of the reducer
+   */
+  public void run() 
+  {
+    // The reducer writes to a private buffer, handed over at the end
+    TaskBuffer<K,V> buffer = new TaskBuffer<K,V>();
+    Thread_m_reducer.reduce(buffer, Thread_key, Thread_s_source);
+    buffer.flushTo(outThread);
+  }
+}
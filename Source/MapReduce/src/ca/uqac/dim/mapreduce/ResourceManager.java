@@ -17,22 +17,51 @@
  */
 package ca.uqac.dim.mapreduce;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Coordinates the creation of all threads needed to execute the jobs. This 
- * means that it's the only object able to create mapper Threads and reducer 
- * Threads with all of the informations needed. It's also very important to know
- * there is a management on the number of threads. The manager create a thread,
- * put it in the threads list and send the object to the calling line. 
- * If the maximum of threads has been hit, he don't stop to try to find a 
- * dead thread in the threads list. After that, he erases the dead thread, 
- * add the new thread and return the object to the calling ligne. 
- * Finally, he can check if all threads of the list are dead. The goal is to 
- * make sure of all of the handling is over, before to pass to the other phase.
+ * Coordinates the execution of all the tasks needed to run the jobs. This 
+ * means that it's the only object able to execute mapper tasks and reducer 
+ * tasks with all of the informations needed. The tasks are not given a
+ * thread of their own: the manager keeps a pool of worker threads and a
+ * bounded queue of pending tasks. A worker takes the next task in the
+ * queue when it is done with the previous one, so the same threads are
+ * reused for the whole job (and from one job to the next).
+ * <p>
+ * The pool can be <em>fixed</em> (a constant number of workers) or
+ * <em>elastic</em> (a minimum number of workers that can grow up to a
+ * maximum when the queue is full, the extra workers retiring after some
+ * idle time). When both the queue and the pool are full, the caller that
+ * submits a task is blocked until a slot frees up.
+ * <p>
+ * Alternatively, a manager created with {@link #withVirtualThreads(int)}
+ * runs each task on a virtual thread of its own, up to a maximum number
+ * of tasks at once. This suits mappers and reducers that spend most of
+ * their time blocked on I/O: thousands of them can wait at the same
+ * time without holding as many platform threads.
+ * <p>
+ * A manager created with {@link #adaptive()} sizes its pool by itself:
+ * it starts with one worker per processor, and changes this number as
+ * it measures how much of the running time of its tasks is spent on
+ * the processor rather than blocked.
+ * <p>
+ * Finally, the manager acts as a barrier between the phases: the
+ * coordinating thread sleeps until all the submitted tasks are over,
+ * and is then given the first exception thrown by a task, if any. The
+ * goal is to make sure of all of the handling is over, before to pass
+ * to the other phase.
  * @author Maxime Soucy-Boivin
- * @version 1.1
+ * @version 1.2
  *
  */
 public class ResourceManager<K,V> {
@@ -50,11 +79,64 @@ public class ResourceManager<K,V> {
   private int threadMax = 0;
 
   /**
-   * The list that contains all of the created threads of the manager. 
-   * It's important to know that the manager is the only one to have access to 
-   * the list.
+   * The number of threads that the manager keeps alive. It is equal to
+   * {@link #threadMax} for a fixed pool, and lower for an elastic one.
    */
-  private List<Thread> listThread = new LinkedList<Thread>();
+  private int threadMin = 0;
+
+  /**
+   * The number of pending tasks that can wait in the queue for each
+   * worker thread, before the caller submitting tasks is blocked.
+   */
+  private static final int QUEUE_FACTOR = 4;
+
+  /**
+   * The largest number of workers per processor of an adaptive manager
+   */
+  private static final int MAX_WORKERS_PER_CORE = 32;
+
+  /**
+   * The number of seconds an idle worker waits for a new task before
+   * being retired.
+   */
+  private static final long KEEP_ALIVE = 30;
+
+  /**
+   * The pool of worker threads. It is created on the first submitted task,
+   * and shared by all the phases that use this manager.
+   */
+  private ThreadPoolExecutor executor = null;
+
+  /**
+   * The factory of virtual threads, when the manager runs each task on
+   * a virtual thread; null when it uses a pool of workers
+   */
+  private ThreadFactory virtualThreads = null;
+
+  /**
+   * The number of tasks that can still be started on a virtual thread
+   * before the caller submitting tasks is blocked
+   */
+  private Semaphore permits = null;
+
+  /**
+   * What an adaptive manager knows of its tasks, or null if the size
+   * of the pool is set by the user
+   */
+  private Sizer sizer = null;
+
+  /**
+   * The number of submitted tasks that are not over yet. A phase is
+   * over when this number goes back to zero; threads waiting for the
+   * end of the phase sleep on this object's monitor.
+   */
+  private int pending = 0;
+
+  /**
+   * The first exception thrown by a task of the current phase, or null
+   * if no task has failed
+   */
+  private Throwable failure = null;
 
   /**
    * Set the maximum of threads of the manager
@@ -62,7 +144,16 @@ public class ResourceManager<K,V> {
    */
   private void setThreadMax(int max)
   {
-    this.threadMax = max;
+    this.threadMax = Math.max(1, max);
+  }
+
+  /**
+   * Set the number of threads the manager keeps alive
+   * @param min Value of the minimum
+   */
+  private void setThreadMin(int min)
+  {
+    this.threadMin = Math.max(1, Math.min(min, threadMax));
   }
 
   /**
@@ -75,207 +166,679 @@ public class ResourceManager<K,V> {
   }
 
   /**
-   * Create an instance of ResourceManager with the default value of 
-   * threads maximum
+   * Returns the number of threads the manager keeps alive
+   * @return The number of threads
+   */
+  public int getThreadMin()
+  {
+    return this.threadMin;
+  }
+
+  /**
+   * Create an instance of ResourceManager with a fixed pool of the
+   * default number of threads
    */
   public ResourceManager()
   {
     setThreadMax(threadDefault);
+    setThreadMin(threadDefault);
   }
 
   /**
-   * Create an instance of ResourceManager
+   * Create an instance of ResourceManager with a fixed pool of threads
    * @param maxThread Value of the threads maximum given by the user
    */
   public ResourceManager(int maxThread)
   {
     setThreadMax(maxThread);
+    setThreadMin(maxThread);
+  }
+
+  /**
+   * Create an instance of ResourceManager with an elastic pool of threads
+   * @param minThread The number of threads kept alive
+   * @param maxThread Value of the threads maximum given by the user
+   */
+  public ResourceManager(int minThread, int maxThread)
+  {
+    setThreadMax(maxThread);
+    setThreadMin(minThread);
   }
 
   /**
-   * Creates a mapper thread
+   * Create an instance of ResourceManager running each task on a
+   * virtual thread. Virtual threads appeared in Java 21; on an older
+   * JVM, the manager falls back to a fixed pool of platform threads
+   * (the smallest of the given number and the default size of a pool).
+   * @param maxTasks The maximum number of tasks running at the same
+   *   time. Submitting a task blocks while this number is reached.
+   * @return The manager
+   */
+  public static <K,V> ResourceManager<K,V> withVirtualThreads(int maxTasks)
+  {
+    ResourceManager<K,V> rm = new ResourceManager<K,V>();
+    ThreadFactory factory = getVirtualThreadFactory();
+    if (factory == null)
+    {
+      int n = Math.min(maxTasks, rm.threadDefault);
+      rm.setThreadMax(n);
+      rm.setThreadMin(n);
+      return rm;
+    }
+    rm.setThreadMax(maxTasks);
+    rm.setThreadMin(maxTasks);
+    rm.virtualThreads = factory;
+    rm.permits = new Semaphore(rm.threadMax);
+    return rm;
+  }
+
+  /**
+   * Create an instance of ResourceManager whose number of workers
+   * adapts to the tasks. The pool starts with one worker per available
+   * processor. Every few tasks, the manager measures the fraction
+   * <i>b</i> of their running time during which they were not using
+   * the processor (waiting for I/O, for a lock...), and resizes the
+   * pool to <i>n</i>/(1-<i>b</i>) workers for <i>n</i> processors:
+   * CPU-bound tasks get one worker per processor, and tasks that
+   * mostly wait get many more. If adding workers lowered the number of
+   * tasks done per second, the pool is brought back to its previous
+   * size.
+   * <p>
+   * The manager also tells a {@link ParallelWorkflow} when a source is
+   * too small for parallelism to pay off, from the cost per tuple of
+   * the previous jobs; the workflow then runs the job sequentially.
+   * @return The manager
+   */
+  public static <K,V> ResourceManager<K,V> adaptive()
+  {
+    int cores = Runtime.getRuntime().availableProcessors();
+    ResourceManager<K,V> rm = new ResourceManager<K,V>();
+    rm.setThreadMax(cores * MAX_WORKERS_PER_CORE);
+    rm.setThreadMin(cores);
+    rm.sizer = rm.new Sizer(cores);
+    return rm;
+  }
+
+  /**
+   * Tells whether the manager adapts the size of its pool to the tasks
+   * @return true if it was created by {@link #adaptive()}
+   */
+  public boolean isAdaptive()
+  {
+    return sizer != null;
+  }
+
+  /**
+   * Returns the number of workers the manager currently aims for. This
+   * is {@link #getThreadMax()}, unless the manager is adaptive.
+   * @return The number of workers
+   */
+  public int getTargetThreads()
+  {
+    if (sizer == null)
+      return threadMax;
+    return sizer.getTarget();
+  }
+
+  /**
+   * Tells whether a job is large enough to be worth running on the
+   * pool. A manager that is not adaptive always says it is.
+   * @param num_tuples The number of tuples of the source, or -1 if
+   *   it is unknown
+   * @return false if the job should rather run sequentially
+   */
+  /*package*/ boolean isWorthParallelizing(long num_tuples)
+  {
+    if (sizer == null || num_tuples < 0)
+      return true;
+    return sizer.isWorthParallelizing(num_tuples);
+  }
+
+  /**
+   * Tells an adaptive manager how long a job took, so that it can
+   * estimate the cost of a tuple
+   * @param num_tuples The number of tuples of the source
+   * @param nanos The time spent processing them, summed over all the
+   *   tasks
+   */
+  /*package*/ void recordWork(long num_tuples, long nanos)
+  {
+    if (sizer != null)
+      sizer.recordWork(num_tuples, nanos);
+  }
+
+  /**
+   * Tells whether the manager runs its tasks on virtual threads
+   * @return true if it does, false if it uses a pool of workers
+   */
+  public boolean isVirtual()
+  {
+    return virtualThreads != null;
+  }
+
+  /**
+   * Gets a factory of virtual threads through reflection, so that the
+   * manager still compiles and runs on JVMs that lack them
+   * @return The factory, or null if the JVM has no virtual threads
+   */
+  private static ThreadFactory getVirtualThreadFactory()
+  {
+    try
+    {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builder_class = Class.forName("java.lang.Thread$Builder");
+      builder = builder_class.getMethod("name", String.class, long.class)
+          .invoke(builder, "mrsim-virtual-", 1L);
+      return (ThreadFactory) builder_class.getMethod("factory").invoke(builder);
+    }
+    catch (Exception e)
+    {
+      // No virtual threads in this JVM
+      return null;
+    }
+  }
+
+  /**
+   * Submits a mapper task. The call returns as soon as the task is
+   * queued, and blocks only if the queue is full.
    * @param t The tuple to analyze
    * @param temp_coll The collector of all results
    * @param m_mapper The {@link Mapper} to use in the map phase
-   * @return A thread
    */
-  public Thread getThread(Tuple<K,V> t, Collector<K,V> temp_coll, Mapper<K,V> m_mapper)
+  public void submit(Tuple<K,V> t, OutCollector<K,V> temp_coll, Mapper<K,V> m_mapper)
+  {
+    submit(t, temp_coll, m_mapper, null);
+  }
+
+  /**
+   * Submits a mapper task whose output is pre-aggregated by a combiner
+   * before being written to the collector of all results. The call
+   * returns as soon as the task is queued, and blocks only if the
+   * queue is full.
+   * @param t The tuple to analyze
+   * @param temp_coll The collector of all results
+   * @param m_mapper The {@link Mapper} to use in the map phase
+   * @param m_combiner The {@link Reducer} to use as a combiner, or null
+   *   to write the mapper's output directly
+   */
+  public void submit(Tuple<K,V> t, OutCollector<K,V> temp_coll, Mapper<K,V> m_mapper, Reducer<K,V> m_combiner)
+  {
+    Collector<K,V> split = new Collector<K,V>();
+    split.toList().add(t);
+    submit(split, temp_coll, m_mapper, m_combiner);
+  }
+
+  /**
+   * Submits a mapper task processing all the tuples of an input split.
+   * The call returns as soon as the task is queued, and blocks only if
+   * the queue is full.
+   * @param split The tuples to analyze
+   * @param temp_coll The collector of all results
+   * @param m_mapper The {@link Mapper} to use in the map phase
+   * @param m_combiner The {@link Reducer} to use as a combiner, or null
+   *   to write the mapper's output directly
+   */
+  public void submit(InCollector<K,V> split, OutCollector<K,V> temp_coll, Mapper<K,V> m_mapper, Reducer<K,V> m_combiner)
+  {
+    submit(new MapTask<K,V>(split, temp_coll, m_mapper, m_combiner));
+  }
+
+  /**
+   * Submits a reducer task. The call returns as soon as the task is
+   * queued, and blocks only if the queue is full.
+   * @param out The collector of the final results
+   * @param key The key to reduce
+   * @param s_source The collector of all results of the mapper phase
+   * @param m_reducer The {@link Reducer} to use in the reduce phase
+   */
+  public void submit(Collector<K,V> out,  K key, Collector<K,V> s_source, Reducer<K,V> m_reducer)
+  {
+    submit(new ReduceTask<K,V>(out, key, s_source, m_reducer));
+  }
+
+  /**
+   * Submits an arbitrary task to the pool of workers
+   * @param task The task to run
+   */
+  public void submit(final Runnable task)
+  {
+    submit(task, null, null);
+  }
+
+  /**
+   * Submits a task to the pool of workers, measuring the time it waits
+   * in the queue and the time it runs
+   * @param task The task to run
+   * @param durations The histogram receiving the duration of the task,
+   *   or null
+   * @param queue_wait The histogram receiving the time between the
+   *   submission of the task and its start, or null
+   */
+  /*package*/ void submit(final Runnable task, final Histogram durations, final Histogram queue_wait)
   {
-    int i=0;
-    boolean create = false;
-    MapThread<K,V> MThread = null;
-    Thread ThreadTemp = null;
+    submit(task, null, durations, queue_wait);
+  }
 
-    if(listThread.size() < threadMax)
+  /**
+   * Submits a task to the pool of workers, followed by a second task
+   * that runs on the same worker even if the first one is skipped or
+   * fails. A task whose result someone waits for can thus always hand
+   * over a result.
+   * @param task The task to run
+   * @param after The task to run after it in any case, or null
+   * @param durations The histogram receiving the duration of the task,
+   *   or null
+   * @param queue_wait The histogram receiving the time between the
+   *   submission of the task and its start, or null
+   */
+  /*package*/ void submit(final Runnable task, final Runnable after, final Histogram durations, final Histogram queue_wait)
+  {
+    synchronized (this)
     {
-      MThread = new MapThread<K,V>(t,temp_coll,m_mapper);
-      listThread.add(MThread);
+      pending++;
     }
-    else
+    final long submitted = System.nanoTime();
+    try
     {
-      while(create != true)
+      dispatch(new Runnable()
       {
-        while(i < listThread.size())
+        @Override
+        public void run()
         {
-          ThreadTemp = listThread.get(i);
-
-          if(!ThreadTemp.isAlive())
+          Throwable thrown = null;
+          long start = System.nanoTime();
+          long cpu_start = sizer != null ? cpuTime() : -1;
+          if (queue_wait != null)
+            queue_wait.record(start - submitted);
+          try
           {
-            listThread.remove(i);
-            MThread = new MapThread<K,V>(t,temp_coll,m_mapper);
-            listThread.add(MThread);
-            create = true;
-            i = listThread.size();
+            // Once a task has failed, the phase is lost: skip the others
+            if (!hasFailed())
+              task.run();
           }
-          else
+          catch (Throwable e)
           {
-            i++;
+            thrown = e;
           }
+          finally
+          {
+            if (after != null)
+            {
+              try
+              {
+                after.run();
+              }
+              catch (Throwable e)
+              {
+                if (thrown == null)
+                  thrown = e;
+              }
+            }
+          }
+          long end = System.nanoTime();
+          if (durations != null)
+            durations.record(end - start);
+          if (sizer != null)
+            sizer.record(end - start, cpu_start < 0 ? -1 : cpuTime() - cpu_start);
+          finished(thrown);
         }
-        i = 0;
-      }
+      });
+    }
+    catch (RuntimeException e)
+    {
+      finished(e);
+      throw e;
     }
-    return MThread;
   }
 
   /**
-   * Creates a reducer thread
-   * @param out The collector of the final results
-   * @param key The key to reduce
-   * @param s_source The collector of all results of the mapper phase
-   * @param m_reducer The {@link Reducer} to use in the reduce phase
-   * @return A thread
+   * Starts a task on a virtual thread of its own, or hands it to the
+   * pool of workers
+   * @param task The task
    */
-  public Thread getThread(Collector<K,V> out,  K key, Collector<K,V> s_source, Reducer<K,V> m_reducer)
+  private void dispatch(final Runnable task)
   {
-    int i=0;
-    boolean create = false;
-    ReduceThread<K,V> RThread = null;
-    Thread ThreadTemp = null;
-
-    if(listThread.size() < threadMax)
+    if (virtualThreads == null)
     {
-      RThread = new ReduceThread<K,V>(out, key, s_source, m_reducer);
-      listThread.add(RThread);
+      getExecutor().execute(task);
+      return;
     }
-    else
+    try
     {
-      while(create !=true)
+      permits.acquire();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException(e);
+    }
+    try
+    {
+      virtualThreads.newThread(new Runnable()
       {
-        while(i< listThread.size())
+        @Override
+        public void run()
         {
-          ThreadTemp = listThread.get(i);
-
-          if(!ThreadTemp.isAlive())
+          try
+          {
+            task.run();
+          }
+          finally
           {
-            listThread.remove(i);
-            RThread = new ReduceThread<K,V>(out, key, s_source, m_reducer);
-            listThread.add(RThread);
-            create = true;
-            i = listThread.size();
+            permits.release();
           }
-          else
-            i++;
         }
-        i=0;
-      }
+      }).start();
+    }
+    catch (RuntimeException e)
+    {
+      permits.release();
+      throw e;
     }
-    return RThread;
   }
 
   /**
-   * Function who check if all threads of the list are dead and clear the list
+   * Tells whether a task has failed since the beginning of the current
+   * phase. When this is the case, the tasks still in the queue are
+   * skipped, and {@link #waitThreads()} will throw an exception.
+   * @return true if a task has failed
+   */
+  public synchronized boolean hasFailed()
+  {
+    return failure != null;
+  }
+
+  /**
+   * Waits until all the tasks submitted since the beginning of the phase
+   * are over. The calling thread sleeps in the meantime; it is woken up
+   * by the last task to finish. Once this method returns, a new phase
+   * can start.
+   * @throws MapReduceException If one of the tasks has thrown an exception.
+   *   The first exception thrown is the cause of this exception.
    */
   public void waitThreads()
   {
-    int i=0;
-    Thread ThreadTemp = null;
-    while(i < listThread.size())
+    Throwable t = null;
+    synchronized (this)
     {
-      ThreadTemp = listThread.get(i);
+      boolean interrupted = false;
+      while (pending > 0)
+      {
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+      t = failure;
+      failure = null;
+    }
+    if (sizer != null)
+      sizer.endPhase();
+    if (t != null)
+      throw new MapReduceException("A task has failed: " + t, t);
+  }
+
+  /**
+   * Called by each task when it is over
+   * @param thrown The exception thrown by the task, null if none
+   */
+  private synchronized void finished(Throwable thrown)
+  {
+    if (thrown != null && failure == null)
+      failure = thrown;
+    pending--;
+    if (pending == 0)
+      notifyAll();
+  }
 
-      if(ThreadTemp.isAlive())
-        i = 0;    
-      else
-        i++;
+  /**
+   * Stops the worker threads once the pending tasks are over. The
+   * manager can still be used afterwards: a new pool is then created
+   * on the next submitted task. A manager running its tasks on virtual
+   * threads has no worker to stop.
+   */
+  public synchronized void shutdown()
+  {
+    if (executor != null)
+    {
+      executor.shutdown();
+      executor = null;
     }
-    listThread.clear();
   }
-}
 
-/**
- * Class who encapsulates the processing of a mapper and his informations 
- * in a thread
- * @author Maxime Soucy-Boivin
- */
-class MapThread<K,V> extends Thread 
-{
   /**
-   * Informations needed to be transferred to the mapper
-   * For more information, see function getThread
+   * Returns the pool of workers, creating it if necessary
+   * @return The pool
    */
-  Tuple<K,V> tThread = new Tuple<K,V>();
-  Collector<K,V> Thread_Temp_col = new Collector<K,V>();
-  Mapper<K,V> Thread_m_mapper = null;
+  private synchronized ThreadPoolExecutor getExecutor()
+  {
+    if (executor == null)
+    {
+      // An adaptive pool has exactly as many workers as its target
+      int core = sizer != null ? sizer.getTarget() : threadMin;
+      int max = sizer != null ? core : threadMax;
+      executor = new ThreadPoolExecutor(core, max,
+          KEEP_ALIVE, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(threadMax * QUEUE_FACTOR),
+          new WorkerFactory(), new BlockingHandoff());
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
 
   /**
-   * Create an instance of MapThread
-   * @param t The tuple to analyse
-   * @param temp_coll The collector of all results
-   * @param m_mapper The {@link Mapper} to use in the map phase
+   * Changes the number of workers of the pool
+   * @param n The number of workers
    */
-  MapThread(Tuple<K,V> t, Collector<K,V> temp_coll, Mapper<K,V> m_mapper) 
+  private synchronized void resize(int n)
   {
-    this.tThread = t;
-    this.Thread_Temp_col = temp_coll;
-    this.Thread_m_mapper = m_mapper;
+    if (executor == null)
+      return;
+    if (n > executor.getMaximumPoolSize())
+    {
+      executor.setMaximumPoolSize(n);
+      executor.setCorePoolSize(n);
+    }
+    else
+    {
+      executor.setCorePoolSize(n);
+      executor.setMaximumPoolSize(n);
+    }
   }
 
   /**
-   * Function who start the execution of the mapper
+   * Measures the tasks of an adaptive manager, and decides the size of
+   * its pool
    */
-  public void run() 
+  private class Sizer
   {
-    Thread_m_mapper.map(Thread_Temp_col, tThread);
+    /**
+     * The number of tasks, and the minimum time, between two decisions
+     */
+    static final int WINDOW_TASKS = 16;
+    static final long WINDOW_NANOS = 20000000L;
+
+    /**
+     * The time a job must take on a single thread to be worth
+     * dividing into tasks, and the number of tuples assumed to reach
+     * it when the cost of a tuple is not known yet
+     */
+    static final long MIN_PARALLEL_NANOS = 5000000L;
+    static final long MIN_PARALLEL_TUPLES = 10000;
+
+    private final int cores;
+    private int target;
+    private int ceiling;
+
+    /**
+     * The measurements of the current window
+     */
+    private long windowStart = 0;
+    private int windowTasks = 0;
+    private long windowWall = 0;
+    private long windowCpu = 0;
+
+    /**
+     * The throughput of the previous window, and the size of the pool
+     * during that window
+     */
+    private double lastThroughput = -1;
+    private int lastTarget = 0;
+
+    /**
+     * The tuples processed by the jobs run so far, and the time it took
+     */
+    private long workTuples = 0;
+    private long workNanos = 0;
+
+    Sizer(int cores)
+    {
+      this.cores = cores;
+      this.target = cores;
+      this.ceiling = threadMax;
+    }
+
+    synchronized int getTarget()
+    {
+      return target;
+    }
+
+    /**
+     * Records the duration of a task, and resizes the pool at the end
+     * of a window
+     * @param wall The time between the start and the end of the task
+     * @param cpu The processor time used by the task, or -1 if the JVM
+     *   cannot measure it
+     */
+    void record(long wall, long cpu)
+    {
+      int resize_to = 0;
+      synchronized (this)
+      {
+        long now = System.nanoTime();
+        if (windowTasks == 0)
+          windowStart = now - wall;
+        windowTasks++;
+        windowWall += wall;
+        windowCpu += cpu < 0 ? wall : Math.min(cpu, wall);
+        if (windowTasks < WINDOW_TASKS || now - windowStart < WINDOW_NANOS)
+          return;
+        double throughput = windowTasks * 1e9 / (now - windowStart);
+        double blocking = windowWall == 0 ? 0 : 1 - (double) windowCpu / windowWall;
+        // Beyond this ratio, the pool would reach its maximum anyway
+        blocking = Math.min(blocking, 1 - 1.0 / MAX_WORKERS_PER_CORE);
+        int wanted = (int) Math.round(cores / (1 - blocking));
+        if (lastThroughput > 0 && target > lastTarget && throughput < 0.9 * lastThroughput)
+        {
+          // The last increase made things worse: undo it, and don't retry
+          ceiling = Math.max(lastTarget, cores);
+        }
+        wanted = Math.max(1, Math.min(wanted, ceiling));
+        lastThroughput = throughput;
+        lastTarget = target;
+        if (wanted != target)
+        {
+          target = wanted;
+          resize_to = wanted;
+        }
+        windowTasks = 0;
+        windowWall = 0;
+        windowCpu = 0;
+      }
+      if (resize_to > 0)
+        resize(resize_to);
+    }
+
+    /**
+     * Forgets the measurements of the current window once the tasks of
+     * a phase are over, since the next phase may run different tasks.
+     * The size of the pool is kept.
+     */
+    synchronized void endPhase()
+    {
+      windowTasks = 0;
+      windowWall = 0;
+      windowCpu = 0;
+      lastThroughput = -1;
+      ceiling = threadMax;
+    }
+
+    synchronized void recordWork(long num_tuples, long nanos)
+    {
+      if (num_tuples <= 0 || nanos <= 0)
+        return;
+      workTuples += num_tuples;
+      workNanos += nanos;
+    }
+
+    synchronized boolean isWorthParallelizing(long num_tuples)
+    {
+      if (workTuples == 0)
+        return num_tuples >= MIN_PARALLEL_TUPLES;
+      return num_tuples * ((double) workNanos / workTuples) >= MIN_PARALLEL_NANOS;
+    }
   }
-}
 
-/**
- * Class who encapsulates the processing of a reducer and his informations
- * in a thread
- * @author Maxime Soucy-Boivin
- */
-class ReduceThread<K,V> extends Thread 
-{
   /**
-   * Informations needed to be transferred to the reducer
-   * For more information, see function getThread
+   * Returns the processor time used so far by the current thread
+   * @return The time in nanoseconds, or -1 if it cannot be measured
    */
-  Collector<K,V> outThread = new Collector<K,V>();
-  K Thread_key = null;
-  Collector<K,V> Thread_s_source = new Collector<K,V>();
-  Reducer<K,V> Thread_m_reducer = null;
+  private static long cpuTime()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!bean.isCurrentThreadCpuTimeSupported())
+      return -1;
+    return bean.getCurrentThreadCpuTime();
+  }
 
   /**
-   * Create an instance of ReduceThread
-   * @param out The collector of the final results
-   * @param key The key to reduce
-   * @param s_source The collector of all results of the mapper phase
-   * @param m_reducer The {@link Reducer} to use in the reduce phase
+   * Creates the worker threads of the pool. Workers are daemon threads,
+   * so that a program that never calls {@link ResourceManager#shutdown()}
+   * can still exit.
    */
-  ReduceThread(Collector<K,V> out, K key, Collector<K,V> s_source, Reducer<K,V> m_reducer) 
+  private static class WorkerFactory implements ThreadFactory
   {
-    this.outThread = out;
-    this.Thread_key = key;
-    this.Thread_s_source = s_source;
-    this.Thread_m_reducer = m_reducer;
+    private static final AtomicInteger s_poolNumber = new AtomicInteger();
+    private final int m_pool = s_poolNumber.incrementAndGet();
+    private final AtomicInteger m_threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "mrsim-" + m_pool + "-worker-" + m_threadNumber.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
   }
 
   /**
-   * Function who start the execution of the reducer
+   * Called when both the queue and the pool are full: instead of
+   * refusing the task, the calling thread waits until the queue
+   * has room for it.
    */
-  public void run() 
+  private static class BlockingHandoff implements RejectedExecutionHandler
   {
-    Thread_m_reducer.reduce(outThread, Thread_key, Thread_s_source);
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+    {
+      if (executor.isShutdown())
+        throw new RejectedExecutionException("The resource manager has been shut down");
+      BlockingQueue<Runnable> queue = executor.getQueue();
+      try
+      {
+        queue.put(r);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(e);
+      }
+    }
   }
-}
\ No newline at end of file
+}
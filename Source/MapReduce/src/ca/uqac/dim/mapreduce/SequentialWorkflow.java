@@ -36,6 +36,7 @@ public class SequentialWorkflow<K,V> implements Workflow<K,V>
 {
 	private Mapper<K,V> m_mapper = null;
 	private Reducer<K,V> m_reducer = null;
+	private Reducer<K,V> m_combiner = null;
 	private InCollector<K,V> m_source = null;
 	
 	/**
@@ -56,6 +57,39 @@ public class SequentialWorkflow<K,V> implements Workflow<K,V>
 	 */
 	protected long m_maxTuples = 0;
 	
+	/**
+	 * The maximum number of map output tuples kept in memory, or 0
+	 * if there is no maximum
+	 */
+	private int m_spillThreshold = 0;
+	
+	/**
+	 * The serdes writing the spilled tuples, or null to use Java
+	 * serialization
+	 */
+	private Serde<K> m_keySerde = null;
+	private Serde<V> m_valueSerde = null;
+	
+	/**
+	 * The serdes of the map output and of the job output kept outside
+	 * of the heap, or null to keep them on the heap
+	 */
+	private Serde<K> m_offHeapKeys = null;
+	private Serde<V> m_offHeapValues = null;
+	
+	/**
+	 * The measurements of the last run
+	 */
+	private WorkflowMetrics m_metrics = new WorkflowMetrics();
+	
+	/**
+	 * The comparators of the sorted shuffle. The shuffle is sorted
+	 * only if a key comparator is set.
+	 */
+	private Comparator<? super K> m_keyOrder = null;
+	private Comparator<? super K> m_grouping = null;
+	private Comparator<? super V> m_valueOrder = null;
+	
 	/**
 	 * Create an instance of SequentialWorkflow.
 	 * @param m The {@link Mapper} to use in the map phase
@@ -80,11 +114,110 @@ public class SequentialWorkflow<K,V> implements Workflow<K,V>
 		m_reducer = r;
 	}
 	
+	/**
+	 * Sets the combiner of the job. The tuples produced by the mapper
+	 * for each input tuple are then grouped by key and passed to the
+	 * combiner before being shuffled.
+	 * @param c The {@link Reducer} to use as a combiner (typically the
+	 *   job's reducer, if it is associative), or null for no combiner
+	 */
+	public void setCombiner(Reducer<K,V> c)
+	{
+		m_combiner = c;
+	}
+	
 	public void setSource(InCollector<K,V> c)
 	{
 		m_source = c;
 	}
 	
+	/**
+	 * Sets the maximum number of tuples produced by the map phase that
+	 * are kept in memory. When this number is reached, the tuples are
+	 * sorted and written to a temporary file; the files are merged at
+	 * the end of the map phase, and each group of tuples is read back
+	 * only when it is sent to the reducer. Keys and values must then be
+	 * {@link java.io.Serializable}, unless serdes are given with
+	 * {@link #setSerdes(Serde, Serde)}.
+	 * @param max_tuples The number of tuples, or 0 for no maximum
+	 *   (the default)
+	 */
+	public void setSpillThreshold(int max_tuples)
+	{
+		m_spillThreshold = Math.max(0, max_tuples);
+	}
+	
+	/**
+	 * Sets how the keys and the values are written to disk when the
+	 * map output is spilled. Without serdes, they are written using
+	 * Java serialization.
+	 * @param keys The serde of the keys, or null
+	 * @param values The serde of the values, or null
+	 * @throws IllegalArgumentException If only one of the serdes is null
+	 */
+	public void setSerdes(Serde<K> keys, Serde<V> values)
+	{
+		if ((keys == null) != (values == null))
+			throw new IllegalArgumentException("The serdes of the keys and of the values must be given together");
+		m_keySerde = keys;
+		m_valueSerde = values;
+	}
+	
+	/**
+	 * Keeps the map output and the output of the job outside of the
+	 * heap, serialized with the given serdes into
+	 * {@link OffHeapCollector}s. The map output is decoded when it is
+	 * grouped by key, and {@link #run()} returns the OffHeapCollector
+	 * the reducer wrote to. The map output is kept on the heap when it
+	 * is spilled to disk.
+	 * @param keys The serde of the keys, or null
+	 * @param values The serde of the values, or null
+	 * @throws IllegalArgumentException If only one of the serdes is null
+	 */
+	public void setOffHeapSerdes(Serde<K> keys, Serde<V> values)
+	{
+		if ((keys == null) != (values == null))
+			throw new IllegalArgumentException("The serdes of the keys and of the values must be given together");
+		m_offHeapKeys = keys;
+		m_offHeapValues = values;
+	}
+	
+	/**
+	 * Makes the shuffle sort the map output instead of hashing it: the
+	 * reducer is then called on the keys in this order. By default, the
+	 * keys come in no particular order.
+	 * @param c The order of the keys, or null to go back to the
+	 *   hash-based shuffle
+	 */
+	public void setKeyComparator(Comparator<? super K> c)
+	{
+		m_keyOrder = c;
+	}
+	
+	/**
+	 * Sets which keys are sent to the same call to the reducer, when
+	 * the shuffle is sorted. Keys of a same group must be contiguous in
+	 * the order given by the key comparator; the key passed to the
+	 * reducer is the first one of the group. By default, each distinct
+	 * key forms its own group.
+	 * @param c The grouping comparator, or null to group equal keys only
+	 */
+	public void setGroupingComparator(Comparator<? super K> c)
+	{
+		m_grouping = c;
+	}
+	
+	/**
+	 * Sets the order in which the reducer receives the tuples of a
+	 * group, when the shuffle is sorted (a "secondary sort"). By
+	 * default, they come in the order they were produced.
+	 * @param c The order of the values, or null
+	 */
+	public void setValueComparator(Comparator<? super V> c)
+	{
+		m_valueOrder = c;
+	}
+	
 	public InCollector<K,V> run()
 	{
 		if (m_mapper == null || m_reducer == null || m_source == null)
@@ -92,25 +225,153 @@ public class SequentialWorkflow<K,V> implements Workflow<K,V>
 		assert m_mapper != null;
 		assert m_reducer != null;
 		assert m_source != null;
-		Collector<K,V> temp_coll = new Collector<K,V>();
+		InCollector<K,V> results = null;
+		OutCollector<K,V> out = null;
+		if (m_offHeapKeys != null)
+		{
+			OffHeapCollector<K,V> c = new OffHeapCollector<K,V>(m_offHeapKeys, m_offHeapValues);
+			results = c;
+			out = c;
+		}
+		else
+		{
+			Collector<K,V> c = new Collector<K,V>();
+			results = c;
+			out = c;
+		}
+		m_metrics = new WorkflowMetrics();
+		long start = System.nanoTime();
+		long end_of_map = 0;
+		SortedShuffle<K,V> sorted = null;
+		if (m_keyOrder != null)
+			sorted = new SortedShuffle<K,V>(m_keyOrder, m_grouping, m_valueOrder);
+		if (m_spillThreshold > 0)
+		{
+			SpillingCollector<K,V> temp_coll = new SpillingCollector<K,V>(m_spillThreshold, null, sorted);
+			temp_coll.setSerdes(m_keySerde, m_valueSerde);
+			map(temp_coll);
+			end_of_map = System.nanoTime();
+			m_metrics.setMapOutputTuples(temp_coll.getNumTuples());
+			m_metrics.setPeakIntermediateTuples(temp_coll.getPeakSize());
+			m_metrics.setShuffleNanos(reduceGroups(out, temp_coll.groups()));
+		}
+		else
+		{
+			Collector<K,V> temp_coll = null;
+			if (m_offHeapKeys != null)
+			{
+				OffHeapCollector<K,V> serialized = new OffHeapCollector<K,V>(m_offHeapKeys, m_offHeapValues);
+				map(serialized);
+				end_of_map = System.nanoTime();
+				temp_coll = serialized.decode();
+			}
+			else
+			{
+				temp_coll = new Collector<K,V>();
+				map(temp_coll);
+				end_of_map = System.nanoTime();
+			}
+			m_metrics.setMapOutputTuples(temp_coll.count());
+			m_metrics.setPeakIntermediateTuples(temp_coll.count());
+			if (sorted != null)
+			{
+				sorted.sort(temp_coll.toList());
+				long sort = System.nanoTime() - end_of_map;
+				m_metrics.setShuffleNanos(sort + reduceGroups(out,
+						sorted.groups(Collections.singletonList(temp_coll.toList().iterator()))));
+			}
+			else
+			{
+				Map<K,Collector<K,V>> shuffle = temp_coll.subCollectors();
+				m_metrics.setShuffleNanos(System.nanoTime() - end_of_map);
+				Set<K> keys = shuffle.keySet();
+				for (K key : keys)
+				{
+					reduce(out, key, shuffle.get(key));
+				}
+			}
+		}
+		long end = System.nanoTime();
+		m_metrics.setMapNanos(end_of_map - start);
+		m_metrics.setReduceNanos(end - end_of_map);
+		m_metrics.setTotalNanos(end - start);
+		m_metrics.setReduceOutputTuples(results.count());
+		return results;
+	}
+	
+	/**
+	 * Returns the measurements taken during the last run. Since there
+	 * are no worker threads, the queue wait and the durations of the
+	 * map tasks are empty; each call to the reducer counts as a reduce
+	 * task.
+	 * @return The metrics, empty if the job hasn't executed yet
+	 */
+	public WorkflowMetrics getMetrics()
+	{
+		return m_metrics;
+	}
+	
+	/**
+	 * Sends each group of an enumeration to the reducer. The groups are
+	 * formed as they are enumerated: the time spent in the enumeration
+	 * is counted as the shuffle.
+	 * @param out The collector of the final results
+	 * @param groups The groups
+	 * @return The time spent in the enumeration, in nanoseconds
+	 */
+	private long reduceGroups(OutCollector<K,V> out, Iterator<Tuple<K,Collector<K,V>>> groups)
+	{
+		long shuffle = 0;
+		long before = System.nanoTime();
+		while (groups.hasNext())
+		{
+			Tuple<K,Collector<K,V>> group = groups.next();
+			shuffle += System.nanoTime() - before;
+			reduce(out, group.getKey(), group.getValue());
+			before = System.nanoTime();
+		}
+		return shuffle + System.nanoTime() - before;
+	}
+	
+	/**
+	 * Feeds all the tuples of the source to the mapper
+	 * @param temp_coll The collector receiving the map output
+	 */
+	private void map(OutCollector<K,V> temp_coll)
+	{
+		long num_tuples = 0;
 		m_source.rewind();
 		while (m_source.hasNext())
 		{
 			Tuple<K,V> t = m_source.next();
-			m_mapper.map(temp_coll, t);
-		}
-		Map<K,Collector<K,V>> shuffle = temp_coll.subCollectors();
-		Set<K> keys = shuffle.keySet();
-		Collector<K,V> out = new Collector<K,V>();
-		for (K key : keys)
-		{
-			Collector<K,V> s_source = shuffle.get(key);
-			int num_tuples = s_source.count();
-			m_totalTuples += num_tuples;
-			m_maxTuples = Math.max(m_maxTuples, num_tuples);
-			m_reducer.reduce(out, key, s_source);
+			num_tuples++;
+			if (m_combiner == null)
+				m_mapper.map(temp_coll, t);
+			else
+			{
+				CombiningCollector<K,V> local = new CombiningCollector<K,V>(m_combiner, temp_coll);
+				m_mapper.map(local, t);
+				local.flush();
+			}
 		}
-		return out;
+		m_metrics.addMapInputTuples(num_tuples);
+	}
+	
+	/**
+	 * Sends a group of tuples to the reducer
+	 * @param out The collector of the final results
+	 * @param key The key of the group
+	 * @param s_source The tuples of the group
+	 */
+	private void reduce(OutCollector<K,V> out, K key, Collector<K,V> s_source)
+	{
+		int num_tuples = s_source.count();
+		m_totalTuples += num_tuples;
+		m_maxTuples = Math.max(m_maxTuples, num_tuples);
+		m_metrics.addGroup(num_tuples);
+		long start = System.nanoTime();
+		m_reducer.reduce(out, key, s_source);
+		m_metrics.getReduceTaskNanos().record(System.nanoTime() - start);
 	}
 	
 	/**
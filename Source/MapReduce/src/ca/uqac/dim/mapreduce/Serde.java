@@ -0,0 +1,75 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the keys or the values of tuples to bytes, and back. A serde
+ * ("serializer/deserializer") is written for a single type, and reads
+ * and writes its objects directly, without the reflection and the
+ * class descriptors of Java serialization. The encoding must not
+ * depend on the destination: an object written to a stream can be
+ * read from a buffer holding the same bytes, and vice versa.
+ * <p>
+ * {@link Serdes} provides serdes for strings, boxed primitives and
+ * byte arrays.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface Serde<T>
+{
+	/**
+	 * Writes an object to a buffer, at its current position
+	 * @param value The object
+	 * @param out The buffer
+	 * @throws java.nio.BufferOverflowException If the buffer does not
+	 *   have enough room for the object
+	 */
+	public void write(T value, ByteBuffer out);
+
+	/**
+	 * Reads an object from a buffer, at its current position
+	 * @param in The buffer
+	 * @return The object
+	 * @throws java.nio.BufferUnderflowException If the buffer ends
+	 *   before the object
+	 */
+	public T read(ByteBuffer in);
+
+	/**
+	 * Writes an object to a stream
+	 * @param value The object
+	 * @param out The stream
+	 * @throws IOException If the stream cannot be written
+	 */
+	public void write(T value, DataOutput out) throws IOException;
+
+	/**
+	 * Reads an object from a stream
+	 * @param in The stream
+	 * @return The object
+	 * @throws IOException If the stream cannot be read, or ends before
+	 *   the object
+	 */
+	public T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,594 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@link Serde}s of the usual types of keys and values. Integers
+ * are written as <em>varints</em>: seven bits per byte, the high bit
+ * telling whether another byte follows, so that small numbers take a
+ * single byte. Signed numbers are first "zigzag" encoded (0, -1, 1,
+ * -2... become 0, 1, 2, 3...), so that small negative numbers are
+ * short as well. Strings and byte arrays are written as their length
+ * followed by their bytes; strings are encoded in UTF-8. Floats and
+ * doubles are written as the bits of their IEEE 754 representation,
+ * most significant byte first: whatever the byte order of a buffer,
+ * a value gives the same bytes in a buffer and in a stream.
+ * <p>
+ * Strings and byte arrays may be null. The serdes of boxed primitives
+ * do not accept null.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class Serdes
+{
+  /**
+   * Strings, in UTF-8
+   */
+  public static final Serde<String> STRING = new StringSerde();
+
+  /**
+   * Integers, as zigzag varints
+   */
+  public static final Serde<Integer> INTEGER = new IntegerSerde();
+
+  /**
+   * Longs, as zigzag varints
+   */
+  public static final Serde<Long> LONG = new LongSerde();
+
+  /**
+   * Shorts, as zigzag varints
+   */
+  public static final Serde<Short> SHORT = new ShortSerde();
+
+  /**
+   * Bytes, as themselves
+   */
+  public static final Serde<Byte> BYTE = new ByteSerde();
+
+  /**
+   * Booleans, as one byte
+   */
+  public static final Serde<Boolean> BOOLEAN = new BooleanSerde();
+
+  /**
+   * Characters, as varints
+   */
+  public static final Serde<Character> CHARACTER = new CharacterSerde();
+
+  /**
+   * Floats, as their four IEEE 754 bytes, in big-endian order
+   */
+  public static final Serde<Float> FLOAT = new FloatSerde();
+
+  /**
+   * Doubles, as their eight IEEE 754 bytes, in big-endian order
+   */
+  public static final Serde<Double> DOUBLE = new DoubleSerde();
+
+  /**
+   * Byte arrays
+   */
+  public static final Serde<byte[]> BYTES = new BytesSerde();
+
+  private Serdes()
+  {
+    super();
+  }
+
+  /**
+   * Writes an unsigned varint to a buffer
+   * @param value The number, taken as unsigned
+   * @param out The buffer
+   */
+  public static void writeVarLong(long value, ByteBuffer out)
+  {
+    while ((value & ~0x7FL) != 0)
+    {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  /**
+   * Writes an unsigned varint to a stream
+   * @param value The number, taken as unsigned
+   * @param out The stream
+   * @throws IOException If the stream cannot be written
+   */
+  public static void writeVarLong(long value, DataOutput out) throws IOException
+  {
+    while ((value & ~0x7FL) != 0)
+    {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Reads an unsigned varint from a buffer
+   * @param in The buffer
+   * @return The number
+   */
+  public static long readVarLong(ByteBuffer in)
+  {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0)
+        return value;
+    }
+    throw new MapReduceException("Malformed varint");
+  }
+
+  /**
+   * Reads an unsigned varint from a stream
+   * @param in The stream
+   * @return The number
+   * @throws IOException If the stream cannot be read, or if it does
+   *   not contain a varint
+   */
+  public static long readVarLong(DataInput in) throws IOException
+  {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0)
+        return value;
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  /**
+   * Zigzag-encodes a signed number
+   * @param n The number
+   * @return The encoded number
+   */
+  /*package*/ static long zigzag(long n)
+  {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  /**
+   * Decodes a zigzag-encoded number
+   * @param n The encoded number
+   * @return The number
+   */
+  /*package*/ static long unzigzag(long n)
+  {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  /**
+   * Checks the length read before an array
+   * @param n The length read, plus one
+   * @return The length
+   */
+  private static int length(long n)
+  {
+    if (n < 0 || n - 1 > Integer.MAX_VALUE)
+      throw new MapReduceException("Malformed length: " + (n - 1));
+    return (int) (n - 1);
+  }
+
+  /**
+   * Reads the length written before an array in a stream
+   * @param in The stream
+   * @return The length, or -1 for a null array
+   * @throws IOException If the stream cannot be read, or if the
+   *   length is malformed
+   */
+  private static int length(DataInput in) throws IOException
+  {
+    long n = readVarLong(in);
+    if (n < 0 || n - 1 > Integer.MAX_VALUE)
+      throw new IOException("Malformed length: " + (n - 1));
+    return (int) (n - 1);
+  }
+
+  /**
+   * Writes an int to a buffer in big-endian order, whatever the order
+   * of the buffer
+   * @param value The int
+   * @param out The buffer
+   */
+  private static void putBigEndian(int value, ByteBuffer out)
+  {
+    if (out.order() == ByteOrder.LITTLE_ENDIAN)
+      value = Integer.reverseBytes(value);
+    out.putInt(value);
+  }
+
+  /**
+   * Writes a long to a buffer in big-endian order, whatever the order
+   * of the buffer
+   * @param value The long
+   * @param out The buffer
+   */
+  private static void putBigEndian(long value, ByteBuffer out)
+  {
+    if (out.order() == ByteOrder.LITTLE_ENDIAN)
+      value = Long.reverseBytes(value);
+    out.putLong(value);
+  }
+
+  /**
+   * Reads an int written by {@link #putBigEndian(int, ByteBuffer)}
+   * @param in The buffer
+   * @return The int
+   */
+  private static int getIntBigEndian(ByteBuffer in)
+  {
+    int value = in.getInt();
+    if (in.order() == ByteOrder.LITTLE_ENDIAN)
+      value = Integer.reverseBytes(value);
+    return value;
+  }
+
+  /**
+   * Reads a long written by {@link #putBigEndian(long, ByteBuffer)}
+   * @param in The buffer
+   * @return The long
+   */
+  private static long getLongBigEndian(ByteBuffer in)
+  {
+    long value = in.getLong();
+    if (in.order() == ByteOrder.LITTLE_ENDIAN)
+      value = Long.reverseBytes(value);
+    return value;
+  }
+
+  /**
+   * Checks that a buffer holds the bytes of an array, before reading
+   * them
+   * @param in The buffer
+   * @param len The length of the array
+   * @throws BufferUnderflowException If the buffer ends before the
+   *   array
+   */
+  private static void checkRemaining(ByteBuffer in, int len)
+  {
+    if (len > in.remaining())
+      throw new BufferUnderflowException();
+  }
+
+  private static class StringSerde implements Serde<String>
+  {
+    @Override
+    public void write(String value, ByteBuffer out)
+    {
+      BYTES.write(value == null ? null : value.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    @Override
+    public String read(ByteBuffer in)
+    {
+      int len = length(readVarLong(in));
+      if (len < 0)
+        return null;
+      checkRemaining(in, len);
+      String s = null;
+      if (in.hasArray())
+      {
+        s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+      }
+      else
+      {
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        s = new String(bytes, StandardCharsets.UTF_8);
+      }
+      return s;
+    }
+
+    @Override
+    public void write(String value, DataOutput out) throws IOException
+    {
+      BYTES.write(value == null ? null : value.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    @Override
+    public String read(DataInput in) throws IOException
+    {
+      byte[] bytes = BYTES.read(in);
+      return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class BytesSerde implements Serde<byte[]>
+  {
+    @Override
+    public void write(byte[] value, ByteBuffer out)
+    {
+      if (value == null)
+      {
+        writeVarLong(0, out);
+        return;
+      }
+      writeVarLong(value.length + 1L, out);
+      out.put(value);
+    }
+
+    @Override
+    public byte[] read(ByteBuffer in)
+    {
+      int len = length(readVarLong(in));
+      if (len < 0)
+        return null;
+      checkRemaining(in, len);
+      byte[] bytes = new byte[len];
+      in.get(bytes);
+      return bytes;
+    }
+
+    @Override
+    public void write(byte[] value, DataOutput out) throws IOException
+    {
+      if (value == null)
+      {
+        writeVarLong(0, out);
+        return;
+      }
+      writeVarLong(value.length + 1L, out);
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(DataInput in) throws IOException
+    {
+      int len = length(in);
+      if (len < 0)
+        return null;
+      byte[] bytes = new byte[len];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+
+  private static class IntegerSerde implements Serde<Integer>
+  {
+    @Override
+    public void write(Integer value, ByteBuffer out)
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Integer read(ByteBuffer in)
+    {
+      return (int) unzigzag(readVarLong(in));
+    }
+
+    @Override
+    public void write(Integer value, DataOutput out) throws IOException
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Integer read(DataInput in) throws IOException
+    {
+      return (int) unzigzag(readVarLong(in));
+    }
+  }
+
+  private static class LongSerde implements Serde<Long>
+  {
+    @Override
+    public void write(Long value, ByteBuffer out)
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Long read(ByteBuffer in)
+    {
+      return unzigzag(readVarLong(in));
+    }
+
+    @Override
+    public void write(Long value, DataOutput out) throws IOException
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Long read(DataInput in) throws IOException
+    {
+      return unzigzag(readVarLong(in));
+    }
+  }
+
+  private static class ShortSerde implements Serde<Short>
+  {
+    @Override
+    public void write(Short value, ByteBuffer out)
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Short read(ByteBuffer in)
+    {
+      return (short) unzigzag(readVarLong(in));
+    }
+
+    @Override
+    public void write(Short value, DataOutput out) throws IOException
+    {
+      writeVarLong(zigzag(value), out);
+    }
+
+    @Override
+    public Short read(DataInput in) throws IOException
+    {
+      return (short) unzigzag(readVarLong(in));
+    }
+  }
+
+  private static class ByteSerde implements Serde<Byte>
+  {
+    @Override
+    public void write(Byte value, ByteBuffer out)
+    {
+      out.put(value);
+    }
+
+    @Override
+    public Byte read(ByteBuffer in)
+    {
+      return in.get();
+    }
+
+    @Override
+    public void write(Byte value, DataOutput out) throws IOException
+    {
+      out.writeByte(value);
+    }
+
+    @Override
+    public Byte read(DataInput in) throws IOException
+    {
+      return in.readByte();
+    }
+  }
+
+  private static class BooleanSerde implements Serde<Boolean>
+  {
+    @Override
+    public void write(Boolean value, ByteBuffer out)
+    {
+      out.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public Boolean read(ByteBuffer in)
+    {
+      return in.get() != 0;
+    }
+
+    @Override
+    public void write(Boolean value, DataOutput out) throws IOException
+    {
+      out.writeByte(value ? 1 : 0);
+    }
+
+    @Override
+    public Boolean read(DataInput in) throws IOException
+    {
+      return in.readByte() != 0;
+    }
+  }
+
+  private static class CharacterSerde implements Serde<Character>
+  {
+    @Override
+    public void write(Character value, ByteBuffer out)
+    {
+      writeVarLong(value, out);
+    }
+
+    @Override
+    public Character read(ByteBuffer in)
+    {
+      return (char) readVarLong(in);
+    }
+
+    @Override
+    public void write(Character value, DataOutput out) throws IOException
+    {
+      writeVarLong(value, out);
+    }
+
+    @Override
+    public Character read(DataInput in) throws IOException
+    {
+      return (char) readVarLong(in);
+    }
+  }
+
+  private static class FloatSerde implements Serde<Float>
+  {
+    @Override
+    public void write(Float value, ByteBuffer out)
+    {
+      putBigEndian(Float.floatToRawIntBits(value), out);
+    }
+
+    @Override
+    public Float read(ByteBuffer in)
+    {
+      return Float.intBitsToFloat(getIntBigEndian(in));
+    }
+
+    @Override
+    public void write(Float value, DataOutput out) throws IOException
+    {
+      out.writeInt(Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public Float read(DataInput in) throws IOException
+    {
+      return Float.intBitsToFloat(in.readInt());
+    }
+  }
+
+  private static class DoubleSerde implements Serde<Double>
+  {
+    @Override
+    public void write(Double value, ByteBuffer out)
+    {
+      putBigEndian(Double.doubleToRawLongBits(value), out);
+    }
+
+    @Override
+    public Double read(ByteBuffer in)
+    {
+      return Double.longBitsToDouble(getLongBigEndian(in));
+    }
+
+    @Override
+    public void write(Double value, DataOutput out) throws IOException
+    {
+      out.writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public Double read(DataInput in) throws IOException
+    {
+      return Double.longBitsToDouble(in.readLong());
+    }
+  }
+}
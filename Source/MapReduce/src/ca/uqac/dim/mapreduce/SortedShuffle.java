@@ -0,0 +1,195 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Groups the output of the map phase by sorting it, instead of hashing
+ * it. The tuples are ordered by a key comparator; consecutive tuples
+ * whose keys are equal according to a <em>grouping</em> comparator form
+ * a group, whose key is that of its first tuple. An optional value
+ * comparator orders the tuples of a same key (a "secondary sort"), so
+ * that a reducer receives its values in order.
+ * <p>
+ * The grouping comparator must be consistent with the key comparator:
+ * keys of a same group must be contiguous in the key order. It
+ * defaults to the key comparator itself, so that each distinct key
+ * forms its own group.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class SortedShuffle<K,V>
+{
+  private final Comparator<? super K> m_keyOrder;
+  private final Comparator<? super K> m_grouping;
+  private final Comparator<? super V> m_valueOrder;
+
+  /**
+   * The order of the tuples: by key, then by value if a value
+   * comparator is given
+   */
+  private final Comparator<Tuple<K,V>> m_tupleOrder = new Comparator<Tuple<K,V>>()
+  {
+    @Override
+    public int compare(Tuple<K,V> t1, Tuple<K,V> t2)
+    {
+      int c = m_keyOrder.compare(t1.getKey(), t2.getKey());
+      if (c != 0 || m_valueOrder == null)
+        return c;
+      return m_valueOrder.compare(t1.getValue(), t2.getValue());
+    }
+  };
+
+  /**
+   * Create a SortedShuffle
+   * @param key_order The order of the keys
+   * @param grouping The comparator telling which keys belong to the same
+   *   group, or null to group equal keys only
+   * @param value_order The order of the values of a group, or null to
+   *   leave them in the order they were produced
+   */
+  SortedShuffle(Comparator<? super K> key_order, Comparator<? super K> grouping, Comparator<? super V> value_order)
+  {
+    super();
+    m_keyOrder = key_order;
+    m_grouping = grouping != null ? grouping : key_order;
+    m_valueOrder = value_order;
+  }
+
+  /**
+   * Returns the order of the tuples
+   * @return The comparator
+   */
+  Comparator<Tuple<K,V>> getTupleOrder()
+  {
+    return m_tupleOrder;
+  }
+
+  /**
+   * Sorts a list of tuples in place. The sort is stable: tuples that
+   * compare equal keep their order.
+   * @param tuples The tuples
+   */
+  void sort(List<Tuple<K,V>> tuples)
+  {
+    Collections.sort(tuples, m_tupleOrder);
+  }
+
+  /**
+   * Merges sorted sequences of tuples, and enumerates the groups of the
+   * result in order
+   * @param sequences The sequences, each sorted by {@link #getTupleOrder()}
+   * @return An iterator over the groups; each element is a tuple whose
+   *   key is the key of a group, and whose value contains its tuples
+   */
+  Iterator<Tuple<K,Collector<K,V>>> groups(List<? extends Iterator<Tuple<K,V>>> sequences)
+  {
+    return new MergingIterator(sequences);
+  }
+
+  /**
+   * Enumerates the groups of a k-way merge of sorted sequences
+   */
+  private class MergingIterator implements Iterator<Tuple<K,Collector<K,V>>>
+  {
+    private PriorityQueue<Head> m_heads = null;
+
+    MergingIterator(List<? extends Iterator<Tuple<K,V>>> sequences)
+    {
+      m_heads = new PriorityQueue<Head>(Math.max(1, sequences.size()));
+      int i = 0;
+      for (Iterator<Tuple<K,V>> it : sequences)
+      {
+        if (it.hasNext())
+          m_heads.add(new Head(it, i));
+        i++;
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return !m_heads.isEmpty();
+    }
+
+    @Override
+    public Tuple<K,Collector<K,V>> next()
+    {
+      if (m_heads.isEmpty())
+        throw new NoSuchElementException();
+      K key = m_heads.peek().m_tuple.getKey();
+      Collector<K,V> group = new Collector<K,V>();
+      while (!m_heads.isEmpty() && m_grouping.compare(key, m_heads.peek().m_tuple.getKey()) == 0)
+      {
+        Head h = m_heads.poll();
+        group.toList().add(h.m_tuple);
+        if (h.advance())
+          m_heads.add(h);
+      }
+      return new Tuple<K,Collector<K,V>>(key, group);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The next tuple of one of the sequences to merge. Ties are broken
+     * by the rank of the sequence, which keeps the merge stable.
+     */
+    private class Head implements Comparable<Head>
+    {
+      Iterator<Tuple<K,V>> m_sequence = null;
+      Tuple<K,V> m_tuple = null;
+      int m_rank = 0;
+
+      Head(Iterator<Tuple<K,V>> it, int rank)
+      {
+        m_sequence = it;
+        m_tuple = it.next();
+        m_rank = rank;
+      }
+
+      boolean advance()
+      {
+        if (!m_sequence.hasNext())
+          return false;
+        m_tuple = m_sequence.next();
+        return true;
+      }
+
+      @Override
+      public int compareTo(Head h)
+      {
+        int c = m_tupleOrder.compare(m_tuple, h.m_tuple);
+        if (c != 0)
+          return c;
+        return m_rank < h.m_rank ? -1 : (m_rank == h.m_rank ? 0 : 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,740 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Output collector for map output that may not fit in memory. The
+ * tuples are kept in a buffer of bounded size; when the buffer is
+ * full, its contents are sorted and written to a temporary file
+ * (a <em>run</em>), and the buffer is emptied. Once all tuples have
+ * been collected, {@link #groups()} merges the runs and enumerates
+ * the groups of tuples with the same key, one at a time; hence only
+ * one group at a time (plus one tuple per run) is ever in memory.
+ * At most {@value #DEFAULT_MAX_FAN_IN} runs (see
+ * {@link #setMaxFanIn(int)}) are read at the same time: when there are
+ * more, the oldest ones are first merged into larger runs, as many
+ * times as needed, so that the number of open files stays bounded
+ * however large the map output.
+ * <p>
+ * Tuples are sorted by the hash code of their key: no ordering is
+ * required on the keys themselves, which may be null. When the workflow uses a sorted
+ * shuffle (see {@link SequentialWorkflow#setKeyComparator(Comparator)}),
+ * the runs are rather sorted by its comparators, and the groups come
+ * out in key order. Keys and values are written to
+ * the runs using Java serialization, and must therefore be
+ * {@link java.io.Serializable}, unless {@link Serde}s are given with
+ * {@link #setSerdes(Serde, Serde)}: the runs are then smaller, and
+ * faster to write and to read back.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class SpillingCollector<K,V> implements BulkCollector<K,V>
+{
+  /**
+   * The number of objects written to a run before the serialization
+   * stream forgets about them. Otherwise, the stream would keep a
+   * reference to every object written.
+   */
+  private static final int RESET_INTERVAL = 1024;
+
+  /**
+   * The number of runs merged at the same time, if none is given
+   */
+  public static final int DEFAULT_MAX_FAN_IN = 64;
+
+  private int m_maxTuples = 0;
+  private File m_directory = null;
+  private List<Tuple<K,V>> m_buffer = new ArrayList<Tuple<K,V>>();
+  private List<Run> m_runs = new ArrayList<Run>();
+
+  /**
+   * The largest number of runs read at the same time
+   */
+  private int m_maxFanIn = DEFAULT_MAX_FAN_IN;
+
+  /**
+   * The number of tuples collected so far
+   */
+  private long m_numTuples = 0;
+
+  /**
+   * The number of tuples in memory, either in the buffer or in a list
+   * being sorted and spilled, and the largest value it has reached
+   */
+  private long m_inMemory = 0;
+  private long m_peakInMemory = 0;
+
+  /**
+   * The sorted shuffle giving the order of the runs and the grouping of
+   * the tuples, or null to group the tuples by hash code
+   */
+  private SortedShuffle<K,V> m_shuffle = null;
+
+  /**
+   * The serdes of the keys and the values, or null to use Java
+   * serialization
+   */
+  private Serde<K> m_keySerde = null;
+  private Serde<V> m_valueSerde = null;
+
+  /**
+   * The ordering of the tuples in the runs
+   */
+  private Comparator<Tuple<K,V>> m_order = null;
+
+  /**
+   * The ordering of the tuples by hash code of their key, used when no
+   * sorted shuffle is given
+   */
+  private final Comparator<Tuple<K,V>> m_hashOrder = new Comparator<Tuple<K,V>>()
+  {
+    @Override
+    public int compare(Tuple<K,V> t1, Tuple<K,V> t2)
+    {
+      int h1 = Objects.hashCode(t1.getKey());
+      int h2 = Objects.hashCode(t2.getKey());
+      return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+    }
+  };
+
+  /**
+   * Create a SpillingCollector writing its runs to the default
+   * temporary directory
+   * @param max_tuples The maximum number of tuples kept in memory
+   */
+  public SpillingCollector(int max_tuples)
+  {
+    this(max_tuples, new File(System.getProperty("java.io.tmpdir")));
+  }
+
+  /**
+   * Create a SpillingCollector
+   * @param max_tuples The maximum number of tuples kept in memory
+   * @param directory The directory where to write the runs
+   */
+  public SpillingCollector(int max_tuples, File directory)
+  {
+    this(max_tuples, directory, null);
+  }
+
+  /**
+   * Create a SpillingCollector whose runs are sorted, and whose tuples
+   * are grouped, by a sorted shuffle
+   * @param max_tuples The maximum number of tuples kept in memory
+   * @param directory The directory where to write the runs, or null
+   *   for the default temporary directory
+   * @param shuffle The sorted shuffle, or null to group the tuples by
+   *   hash code
+   */
+  /*package*/ SpillingCollector(int max_tuples, File directory, SortedShuffle<K,V> shuffle)
+  {
+    super();
+    m_maxTuples = Math.max(1, max_tuples);
+    m_directory = directory;
+    m_shuffle = shuffle;
+    m_order = shuffle != null ? shuffle.getTupleOrder() : m_hashOrder;
+  }
+
+  /**
+   * Sets how the keys and the values are written to the runs. This
+   * must be done before the first tuple is collected.
+   * @param keys The serde of the keys, or null for Java serialization
+   * @param values The serde of the values, or null for Java
+   *   serialization
+   * @throws IllegalArgumentException If only one of the serdes is null
+   */
+  public void setSerdes(Serde<K> keys, Serde<V> values)
+  {
+    if ((keys == null) != (values == null))
+      throw new IllegalArgumentException("The serdes of the keys and of the values must be given together");
+    m_keySerde = keys;
+    m_valueSerde = values;
+  }
+
+  /**
+   * Sets the largest number of runs read at the same time. Each run
+   * being read has its own open file and read buffer.
+   * @param n The number of runs, at least 2
+   *   ({@value #DEFAULT_MAX_FAN_IN} by default)
+   */
+  public void setMaxFanIn(int n)
+  {
+    m_maxFanIn = Math.max(2, n);
+  }
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    List<Tuple<K,V>> full = null;
+    synchronized (this)
+    {
+      m_buffer.add(t);
+      added(1);
+      full = takeIfFull();
+    }
+    spill(full);
+  }
+
+  /**
+   * Add a collection of tuples to the collector
+   * @param list A collection of {@link Tuple}
+   */
+  @Override
+  public void addAll(Collection<Tuple<K,V>> list)
+  {
+    List<Tuple<K,V>> full = null;
+    synchronized (this)
+    {
+      m_buffer.addAll(list);
+      added(list.size());
+      full = takeIfFull();
+    }
+    spill(full);
+  }
+
+  /**
+   * Returns the number of runs written to disk so far
+   * @return The number of runs
+   */
+  public synchronized int getNumRuns()
+  {
+    return m_runs.size();
+  }
+
+  /**
+   * Returns the number of tuples collected so far
+   * @return The number of tuples
+   */
+  public synchronized long getNumTuples()
+  {
+    return m_numTuples;
+  }
+
+  /**
+   * Returns the largest number of tuples that were held in memory at
+   * the same time, before being written to disk
+   * @return The number of tuples
+   */
+  public synchronized long getPeakSize()
+  {
+    return m_peakInMemory;
+  }
+
+  /**
+   * Enumerates the tuples, grouped by key. Each element of the
+   * enumeration is a tuple whose key is the key of a group, and
+   * whose value is a {@link Collector} containing the tuples of that
+   * group. This method must be called once all tuples have been
+   * collected; the runs are deleted once the enumeration is over. If
+   * there are more runs than the maximum fan-in, this method first
+   * merges runs together until there are few enough of them.
+   * @return An iterator over the groups
+   */
+  public synchronized Iterator<Tuple<K,Collector<K,V>>> groups()
+  {
+    if (m_runs.isEmpty())
+    {
+      // Everything fits in memory: no need to go through the disk
+      Collections.sort(m_buffer, m_order);
+      Iterator<Tuple<K,V>> it = m_buffer.iterator();
+      m_buffer = new ArrayList<Tuple<K,V>>();
+      if (m_shuffle != null)
+        return m_shuffle.groups(Collections.singletonList(it));
+      return new GroupIterator(new MergeIterator(Collections.singletonList(it)));
+    }
+    spill(m_buffer);
+    m_buffer = new ArrayList<Tuple<K,V>>();
+    while (m_runs.size() > m_maxFanIn)
+    {
+      // Merge just enough of the oldest runs for the last pass to read
+      // at most m_maxFanIn runs
+      mergeRuns(Math.min(m_maxFanIn, m_runs.size() - m_maxFanIn + 1));
+    }
+    List<Iterator<Tuple<K,V>>> readers = readRuns(m_runs);
+    m_runs = new ArrayList<Run>();
+    if (m_shuffle != null)
+      return m_shuffle.groups(readers);
+    return new GroupIterator(new MergeIterator(readers));
+  }
+
+  /**
+   * Merges the oldest runs into a new run, added at the end of the list
+   * of runs
+   * @param n The number of runs to merge
+   */
+  private void mergeRuns(int n)
+  {
+    List<Run> merged = new ArrayList<Run>(m_runs.subList(0, n));
+    m_runs.subList(0, n).clear();
+    long size = 0;
+    for (Run run : merged)
+    {
+      size += run.m_size;
+    }
+    m_runs.add(writeRun(new MergeIterator(readRuns(merged)), size));
+  }
+
+  /**
+   * Opens a reader on each of a list of runs
+   * @param runs The runs
+   * @return The readers
+   */
+  private List<Iterator<Tuple<K,V>>> readRuns(List<Run> runs)
+  {
+    List<Iterator<Tuple<K,V>>> readers = new ArrayList<Iterator<Tuple<K,V>>>(runs.size());
+    for (Run run : runs)
+    {
+      readers.add(new RunReader(run.m_file));
+    }
+    return readers;
+  }
+
+  @Override
+  public void rewind()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Updates the counts of tuples after tuples are added to the buffer
+   * @param n The number of tuples added
+   */
+  private void added(int n)
+  {
+    m_numTuples += n;
+    m_inMemory += n;
+    m_peakInMemory = Math.max(m_peakInMemory, m_inMemory);
+  }
+
+  /**
+   * Empties the buffer if it has reached its maximum size
+   * @return The contents of the buffer if it was full, null otherwise
+   */
+  private List<Tuple<K,V>> takeIfFull()
+  {
+    if (m_buffer.size() < m_maxTuples)
+      return null;
+    List<Tuple<K,V>> full = m_buffer;
+    m_buffer = new ArrayList<Tuple<K,V>>();
+    return full;
+  }
+
+  /**
+   * Sorts a list of tuples and writes it to a new run. This is done
+   * outside of the collector's lock, so that the other threads can
+   * keep on collecting in the meantime.
+   * @param tuples The tuples to write, or null
+   */
+  private void spill(List<Tuple<K,V>> tuples)
+  {
+    if (tuples == null || tuples.isEmpty())
+      return;
+    Collections.sort(tuples, m_order);
+    Run run = writeRun(tuples.iterator(), tuples.size());
+    synchronized (this)
+    {
+      m_runs.add(run);
+      m_inMemory -= tuples.size();
+    }
+  }
+
+  /**
+   * Writes sorted tuples to a new run
+   * @param tuples The sorted tuples
+   * @param size The number of tuples
+   * @return The run
+   */
+  private Run writeRun(Iterator<Tuple<K,V>> tuples, long size)
+  {
+    try
+    {
+      File f = File.createTempFile("mrsim-run-", ".bin", m_directory);
+      f.deleteOnExit();
+      if (m_keySerde != null)
+        writeRun(f, tuples, size);
+      else
+        writeObjectRun(f, tuples);
+      return new Run(f, size);
+    }
+    catch (IOException e)
+    {
+      throw new MapReduceException("Cannot write run to " + m_directory, e);
+    }
+  }
+
+  /**
+   * Writes a run with the serdes. The run starts with its number of
+   * tuples, so that a truncated file is not mistaken for a shorter run.
+   * @param f The file of the run
+   * @param tuples The sorted tuples
+   * @param size The number of tuples
+   * @throws IOException If the file cannot be written
+   */
+  private void writeRun(File f, Iterator<Tuple<K,V>> tuples, long size) throws IOException
+  {
+    DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(f)));
+    try
+    {
+      Serdes.writeVarLong(size, dos);
+      while (tuples.hasNext())
+      {
+        Tuple<K,V> t = tuples.next();
+        m_keySerde.write(t.getKey(), dos);
+        m_valueSerde.write(t.getValue(), dos);
+      }
+    }
+    finally
+    {
+      dos.close();
+    }
+  }
+
+  /**
+   * Writes a run with Java serialization
+   * @param f The file of the run
+   * @param tuples The sorted tuples
+   * @throws IOException If the file cannot be written
+   */
+  private void writeObjectRun(File f, Iterator<Tuple<K,V>> tuples) throws IOException
+  {
+    ObjectOutputStream oos = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(f)));
+    try
+    {
+      int i = 0;
+      while (tuples.hasNext())
+      {
+        Tuple<K,V> t = tuples.next();
+        oos.writeObject(t.getKey());
+        oos.writeObject(t.getValue());
+        if (++i % RESET_INTERVAL == 0)
+          oos.reset();
+      }
+    }
+    finally
+    {
+      oos.close();
+    }
+  }
+
+  /**
+   * A run written to disk
+   */
+  private static class Run
+  {
+    final File m_file;
+    final long m_size;
+
+    Run(File f, long size)
+    {
+      m_file = f;
+      m_size = size;
+    }
+  }
+
+  /**
+   * Reads back the tuples of a run. The file is deleted when the last
+   * tuple has been read.
+   */
+  private class RunReader implements Iterator<Tuple<K,V>>
+  {
+    private File m_file = null;
+    private ObjectInputStream m_in = null;
+    private DataInputStream m_data = null;
+    private Tuple<K,V> m_next = null;
+
+    /**
+     * The number of tuples left in a run written with the serdes
+     */
+    private long m_remaining = 0;
+
+    RunReader(File f)
+    {
+      m_file = f;
+      try
+      {
+        if (m_keySerde != null)
+        {
+          m_data = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(f)));
+          m_remaining = Serdes.readVarLong(m_data);
+        }
+        else
+        {
+          m_in = new ObjectInputStream(
+              new BufferedInputStream(new FileInputStream(f)));
+        }
+      }
+      catch (IOException e)
+      {
+        throw new MapReduceException("Cannot read run " + f, e);
+      }
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance()
+    {
+      try
+      {
+        if (m_data != null)
+        {
+          if (m_remaining == 0)
+          {
+            m_next = null;
+            close();
+            return;
+          }
+          m_remaining--;
+          K key = m_keySerde.read(m_data);
+          V value = m_valueSerde.read(m_data);
+          m_next = new Tuple<K,V>(key, value);
+          return;
+        }
+        K key = (K) m_in.readObject();
+        V value = (V) m_in.readObject();
+        m_next = new Tuple<K,V>(key, value);
+      }
+      catch (EOFException e)
+      {
+        m_next = null;
+        close();
+        if (m_data != null)
+          throw new MapReduceException("Run " + m_file + " is truncated", e);
+      }
+      catch (IOException e)
+      {
+        close();
+        throw new MapReduceException("Cannot read run " + m_file, e);
+      }
+      catch (ClassNotFoundException e)
+      {
+        close();
+        throw new MapReduceException("Cannot read run " + m_file, e);
+      }
+    }
+
+    private void close()
+    {
+      try
+      {
+        if (m_data != null)
+          m_data.close();
+        else
+          m_in.close();
+      }
+      catch (IOException e)
+      {
+        // Nothing we can do
+      }
+      m_file.delete();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return m_next != null;
+    }
+
+    @Override
+    public Tuple<K,V> next()
+    {
+      if (m_next == null)
+        throw new NoSuchElementException();
+      Tuple<K,V> t = m_next;
+      advance();
+      return t;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Merges sorted sequences of tuples into a single sorted sequence
+   */
+  private class MergeIterator implements Iterator<Tuple<K,V>>
+  {
+    /**
+     * The sequences to merge, ordered by their next tuple
+     */
+    private PriorityQueue<Head> m_heads = null;
+
+    MergeIterator(List<Iterator<Tuple<K,V>>> sequences)
+    {
+      m_heads = new PriorityQueue<Head>(Math.max(1, sequences.size()));
+      for (Iterator<Tuple<K,V>> it : sequences)
+      {
+        if (it.hasNext())
+          m_heads.add(new Head(it));
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return !m_heads.isEmpty();
+    }
+
+    /**
+     * Returns the next tuple, without moving past it
+     * @return The tuple
+     */
+    Tuple<K,V> peek()
+    {
+      if (m_heads.isEmpty())
+        throw new NoSuchElementException();
+      return m_heads.peek().m_tuple;
+    }
+
+    @Override
+    public Tuple<K,V> next()
+    {
+      if (m_heads.isEmpty())
+        throw new NoSuchElementException();
+      Head h = m_heads.poll();
+      Tuple<K,V> t = h.m_tuple;
+      if (h.advance())
+        m_heads.add(h);
+      return t;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The next tuple of one of the sequences to merge
+     */
+    private class Head implements Comparable<Head>
+    {
+      Iterator<Tuple<K,V>> m_sequence = null;
+      Tuple<K,V> m_tuple = null;
+
+      Head(Iterator<Tuple<K,V>> it)
+      {
+        m_sequence = it;
+        m_tuple = it.next();
+      }
+
+      boolean advance()
+      {
+        if (!m_sequence.hasNext())
+          return false;
+        m_tuple = m_sequence.next();
+        return true;
+      }
+
+      @Override
+      public int compareTo(Head h)
+      {
+        return m_order.compare(m_tuple, h.m_tuple);
+      }
+    }
+  }
+
+  /**
+   * Enumerates the groups of tuples with the same key, from a sequence
+   * of tuples sorted by the hash code of their key
+   */
+  private class GroupIterator implements Iterator<Tuple<K,Collector<K,V>>>
+  {
+    private MergeIterator m_tuples = null;
+
+    /**
+     * The groups whose key has the hash code being processed. Different
+     * keys can share the same hash code, so there can be more than one.
+     */
+    private Iterator<Map.Entry<K,Collector<K,V>>> m_pending = null;
+
+    GroupIterator(MergeIterator tuples)
+    {
+      m_tuples = tuples;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      if (m_pending != null && m_pending.hasNext())
+        return true;
+      if (!m_tuples.hasNext())
+        return false;
+      // Take all the tuples with the smallest hash code
+      Map<K,Collector<K,V>> groups = new LinkedHashMap<K,Collector<K,V>>();
+      int hash = Objects.hashCode(m_tuples.peek().getKey());
+      while (m_tuples.hasNext() && Objects.hashCode(m_tuples.peek().getKey()) == hash)
+      {
+        Tuple<K,V> t = m_tuples.next();
+        Collector<K,V> c = groups.get(t.getKey());
+        if (c == null)
+        {
+          c = new Collector<K,V>();
+          groups.put(t.getKey(), c);
+        }
+        c.toList().add(t);
+      }
+      m_pending = groups.entrySet().iterator();
+      return true;
+    }
+
+    @Override
+    public Tuple<K,Collector<K,V>> next()
+    {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Map.Entry<K,Collector<K,V>> e = m_pending.next();
+      return new Tuple<K,Collector<K,V>>(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
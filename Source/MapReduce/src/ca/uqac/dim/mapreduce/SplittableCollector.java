@@ -0,0 +1,42 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.List;
+
+/**
+ * Input collector that can be divided into <em>splits</em>: independent
+ * input collectors that, taken together, enumerate exactly the tuples
+ * of the original collector. A {@link ParallelWorkflow} gives each split
+ * to a map task of its own, so that a single large source is processed
+ * by as many mappers as there are splits.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public interface SplittableCollector<K,V> extends InCollector<K,V>
+{
+	/**
+	 * Divides the collector into splits
+	 * @param num_splits The desired number of splits. A collector
+	 *   may return fewer splits (for example, if it is too small to
+	 *   be divided further), but never more.
+	 * @return The list of splits
+	 */
+	public List<InCollector<K,V>> getSplits(int num_splits);
+}
@@ -0,0 +1,82 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Private output buffer of a single map or reduce task. Since a
+ * buffer is written by only one thread, {@link #collect(Tuple)} does
+ * not need any synchronization. When the task is over, the whole
+ * buffer is handed to the shared collector in a single operation with
+ * {@link #flushTo(OutCollector)}, so that tasks running in parallel
+ * only compete for the shared collector once each, rather than once
+ * per tuple.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+/*package*/ class TaskBuffer<K,V> implements OutCollector<K,V>
+{
+  private List<Tuple<K,V>> m_tuples = new ArrayList<Tuple<K,V>>();
+
+  @Override
+  public void collect(Tuple<K,V> t)
+  {
+    m_tuples.add(t);
+  }
+
+  /**
+   * Returns the number of tuples in the buffer
+   * @return The number of tuples
+   */
+  public int size()
+  {
+    return m_tuples.size();
+  }
+
+  /**
+   * Writes the contents of the buffer to another collector, and
+   * empties the buffer
+   * @param out The collector to write to
+   */
+  public void flushTo(OutCollector<K,V> out)
+  {
+    if (m_tuples.isEmpty())
+      return;
+    if (out instanceof BulkCollector<?,?>)
+    {
+      ((BulkCollector<K,V>) out).addAll(m_tuples);
+    }
+    else
+    {
+      for (Tuple<K,V> t : m_tuples)
+      {
+        out.collect(t);
+      }
+    }
+    m_tuples = new ArrayList<Tuple<K,V>>();
+  }
+
+  @Override
+  public void rewind()
+  {
+    // Nothing to do
+  }
+}
@@ -88,7 +88,11 @@ public class Tuple<K,V>
 		assert o != null;
 		if (o instanceof Tuple<?,?>)
 		{
-			return equals((Tuple<?,?>) o);
+			// Casting to Tuple<?,?> would call this method again, not
+			// equals(Tuple<K,V>)
+			Tuple<?,?> t = (Tuple<?,?>) o;
+			return getKey().equals(t.getKey()) &&
+				getValue().equals(t.getValue());
 		}
 		return false;
 	}
@@ -96,14 +100,14 @@ public class Tuple<K,V>
 	public boolean equals(Tuple<K,V> t)
 	{
 		assert t != null;
-		return m_key.equals(t.m_key) &&
-			m_value.equals(t.m_value);
+		return getKey().equals(t.getKey()) &&
+			getValue().equals(t.getValue());
 	}
 	
 	@Override
 	public int hashCode()
 	{
-		return m_key.hashCode() + m_value.hashCode();
+		return getKey().hashCode() + getValue().hashCode();
 	}
 	
 	/**
@@ -121,6 +125,6 @@ public class Tuple<K,V>
 	@Override
 	public String toString()
 	{
-		return "\u2329" + m_key + "," + m_value + "\u232A";
+		return "\u2329" + getKey() + "," + getValue() + "\u232A";
 	}
 }
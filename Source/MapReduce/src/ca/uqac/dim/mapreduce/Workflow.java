@@ -31,4 +31,11 @@ public interface Workflow<K,V>
 	 * @return An InputCollector containing all output tuples
 	 */
 	public InCollector<K,V> run();
+	
+	/**
+	 * Returns the measurements taken during the last call to
+	 * {@link #run()}
+	 * @return The metrics
+	 */
+	public WorkflowMetrics getMetrics();
 }
@@ -0,0 +1,269 @@
+/*
+    A basic map-reduce implementation
+    Copyright (C) 2011 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.dim.mapreduce;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements taken during one run of a {@link Workflow}: the duration
+ * of each phase, the number of tuples flowing through it, and the
+ * distribution of task durations and group sizes. A workflow creates a
+ * new instance at each call to {@link Workflow#run()}; it is obtained
+ * afterwards with {@link Workflow#getMetrics()}.
+ * <p>
+ * In a {@link ParallelWorkflow}, the reducers of a group start as soon
+ * as the group is formed, so that the shuffle and reduce phases
+ * overlap: both are measured from the end of the map phase, and their
+ * durations do not add up to the total.
+ * <p>
+ * All durations are in nanoseconds.
+ * @author Sylvain Hallé
+ * @version 1.2
+ *
+ */
+public class WorkflowMetrics
+{
+  private long m_mapNanos = 0;
+  private long m_shuffleNanos = 0;
+  private long m_reduceNanos = 0;
+  private long m_totalNanos = 0;
+
+  private final AtomicLong m_mapInputTuples = new AtomicLong();
+  private long m_mapOutputTuples = 0;
+  private long m_reduceInputTuples = 0;
+  private long m_reduceOutputTuples = 0;
+  private long m_peakIntermediateTuples = 0;
+
+  private final Histogram m_mapTaskNanos = new Histogram();
+  private final Histogram m_reduceTaskNanos = new Histogram();
+  private final Histogram m_queueWaitNanos = new Histogram();
+  private final Histogram m_groupSizes = new Histogram();
+
+  /**
+   * Returns the duration of the map phase, from the start of the job
+   * until all the mappers are over
+   * @return The duration
+   */
+  public long getMapNanos()
+  {
+    return m_mapNanos;
+  }
+
+  /**
+   * Returns the duration of the shuffle phase, from the end of the map
+   * phase until all the groups of tuples are formed
+   * @return The duration
+   */
+  public long getShuffleNanos()
+  {
+    return m_shuffleNanos;
+  }
+
+  /**
+   * Returns the duration of the reduce phase, from the end of the map
+   * phase until all the reducers are over
+   * @return The duration
+   */
+  public long getReduceNanos()
+  {
+    return m_reduceNanos;
+  }
+
+  /**
+   * Returns the duration of the whole job
+   * @return The duration
+   */
+  public long getTotalNanos()
+  {
+    return m_totalNanos;
+  }
+
+  /**
+   * Returns the number of tuples read from the source by the mappers
+   * @return The number of tuples
+   */
+  public long getMapInputTuples()
+  {
+    return m_mapInputTuples.get();
+  }
+
+  /**
+   * Returns the number of tuples output by the map phase (after the
+   * combiner, if any)
+   * @return The number of tuples
+   */
+  public long getMapOutputTuples()
+  {
+    return m_mapOutputTuples;
+  }
+
+  /**
+   * Returns the number of tuples given to the reducers. It differs from
+   * the number of map output tuples only if the job has failed.
+   * @return The number of tuples
+   */
+  public long getReduceInputTuples()
+  {
+    return m_reduceInputTuples;
+  }
+
+  /**
+   * Returns the number of tuples output by the reducers
+   * @return The number of tuples
+   */
+  public long getReduceOutputTuples()
+  {
+    return m_reduceOutputTuples;
+  }
+
+  /**
+   * Returns the number of groups of tuples, that is, the number of
+   * distinct keys in the map output
+   * @return The number of groups
+   */
+  public long getNumGroups()
+  {
+    return m_groupSizes.getCount();
+  }
+
+  /**
+   * Returns the largest number of map output tuples held in memory at
+   * the same time. It is the whole map output, unless the workflow
+   * spills it to disk.
+   * @return The number of tuples
+   */
+  public long getPeakIntermediateTuples()
+  {
+    return m_peakIntermediateTuples;
+  }
+
+  /**
+   * Returns the distribution of the durations of the map tasks
+   * @return The histogram
+   */
+  public Histogram getMapTaskNanos()
+  {
+    return m_mapTaskNanos;
+  }
+
+  /**
+   * Returns the distribution of the durations of the reduce tasks
+   * @return The histogram
+   */
+  public Histogram getReduceTaskNanos()
+  {
+    return m_reduceTaskNanos;
+  }
+
+  /**
+   * Returns the distribution of the time tasks spend in the queue of
+   * a {@link ResourceManager}, between their submission and the moment
+   * a worker starts them
+   * @return The histogram
+   */
+  public Histogram getQueueWaitNanos()
+  {
+    return m_queueWaitNanos;
+  }
+
+  /**
+   * Returns the distribution of the number of tuples in each group
+   * given to a reducer
+   * @return The histogram
+   */
+  public Histogram getGroupSizes()
+  {
+    return m_groupSizes;
+  }
+
+  /*package*/ void setMapNanos(long nanos)
+  {
+    m_mapNanos = nanos;
+  }
+
+  /*package*/ void setShuffleNanos(long nanos)
+  {
+    m_shuffleNanos = nanos;
+  }
+
+  /*package*/ void setReduceNanos(long nanos)
+  {
+    m_reduceNanos = nanos;
+  }
+
+  /*package*/ void setTotalNanos(long nanos)
+  {
+    m_totalNanos = nanos;
+  }
+
+  /*package*/ void addMapInputTuples(long n)
+  {
+    m_mapInputTuples.addAndGet(n);
+  }
+
+  /*package*/ void setMapOutputTuples(long n)
+  {
+    m_mapOutputTuples = n;
+  }
+
+  /*package*/ void setReduceOutputTuples(long n)
+  {
+    m_reduceOutputTuples = n;
+  }
+
+  /*package*/ void setPeakIntermediateTuples(long n)
+  {
+    m_peakIntermediateTuples = n;
+  }
+
+  /**
+   * Records the size of a group given to a reducer
+   * @param num_tuples The number of tuples in the group
+   */
+  /*package*/ void addGroup(long num_tuples)
+  {
+    m_reduceInputTuples += num_tuples;
+    m_groupSizes.record(num_tuples);
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder out = new StringBuilder();
+    out.append("Map     : ").append(toMillis(m_mapNanos)).append(" ms, ")
+      .append(getMapInputTuples()).append(" tuples in, ")
+      .append(m_mapOutputTuples).append(" tuples out\n");
+    out.append("Shuffle : ").append(toMillis(m_shuffleNanos)).append(" ms, ")
+      .append(getNumGroups()).append(" groups, peak ")
+      .append(m_peakIntermediateTuples).append(" tuples in memory\n");
+    out.append("Reduce  : ").append(toMillis(m_reduceNanos)).append(" ms, ")
+      .append(m_reduceInputTuples).append(" tuples in, ")
+      .append(m_reduceOutputTuples).append(" tuples out\n");
+    out.append("Total   : ").append(toMillis(m_totalNanos)).append(" ms\n");
+    out.append("Map tasks (ns)    : ").append(m_mapTaskNanos).append("\n");
+    out.append("Reduce tasks (ns) : ").append(m_reduceTaskNanos).append("\n");
+    out.append("Queue wait (ns)   : ").append(m_queueWaitNanos).append("\n");
+    out.append("Group sizes       : ").append(m_groupSizes);
+    return out.toString();
+  }
+
+  private static String toMillis(long nanos)
+  {
+    return String.format("%.3f", nanos / 1e6);
+  }
+}